@@ -8,6 +8,7 @@ import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.KeysetPager;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
@@ -47,12 +48,21 @@ public class BlogController {
         UserDTO user = UserHolder.getUser();
         // 根据用户查询
         Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         return Result.ok(records);
     }
 
+    @GetMapping("/of/me/cursor")
+    public Result queryMyBlogCursor(@RequestParam(value = "cursor", required = false) Long lastId) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        // 从上一页最后一篇笔记的id之后查询
+        return Result.ok(KeysetPager.seek(
+                blogService.query().eq("user_id", user.getId()), lastId, SystemConstants.MAX_PAGE_SIZE, Blog::getId));
+    }
+
     @GetMapping("/hot")
     public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
         return blogService.queryHotBlog(current);
@@ -74,11 +84,20 @@ public class BlogController {
             @RequestParam("id") Long id) {
         // 根据用户查询
         Page<Blog> page = blogService.query()
-                .eq("user_id", id).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .eq("user_id", id).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         return Result.ok(records);
     }
+
+    @GetMapping("/of/user/cursor")
+    public Result queryBlogByUserIdCursor(
+            @RequestParam(value = "cursor", required = false) Long lastId,
+            @RequestParam("id") Long id) {
+        // 从上一页最后一篇笔记的id之后查询
+        return Result.ok(KeysetPager.seek(
+                blogService.query().eq("user_id", id), lastId, SystemConstants.MAX_PAGE_SIZE, Blog::getId));
+    }
     @GetMapping("/of/follow")
     public Result queryBlogOfFollow(@RequestParam("lastId")Long max,@RequestParam(value = "offset",defaultValue = "0")Integer offset){
         return blogService.queryBlogOfFollow(max,offset);
@@ -7,6 +7,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.service.impl.ShopServiceImpl;
+import com.hmdp.utils.KeysetPager;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
@@ -44,10 +45,7 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -77,6 +75,22 @@ public class ShopController {
         return shopService.queryShopByType(typeId,current,x,y);
     }
 
+    /**
+     * 根据商铺类型游标分页查询商铺信息，有坐标时按距离排序，否则按id排序
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/type/cursor")
+    public Result queryShopByTypeCursor(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopByTypeCursor(typeId, x, y, cursor);
+    }
+
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
@@ -91,8 +105,24 @@ public class ShopController {
         // 根据类型分页查询
         Page<Shop> page = shopService.query()
                 .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 返回数据
         return Result.ok(page.getRecords());
     }
+
+    /**
+     * 根据商铺名称关键字按id游标分页查询商铺信息
+     * @param name 商铺名称关键字
+     * @param lastId 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/name/cursor")
+    public Result queryShopByNameCursor(
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "cursor", required = false) Long lastId
+    ) {
+        return Result.ok(KeysetPager.seek(
+                shopService.query().like(StrUtil.isNotBlank(name), "name", name),
+                lastId, SystemConstants.MAX_PAGE_SIZE, Shop::getId));
+    }
 }
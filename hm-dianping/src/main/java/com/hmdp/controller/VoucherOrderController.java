@@ -3,10 +3,10 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import com.hmdp.utils.OrderStatusTracker;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -23,8 +23,24 @@ import javax.annotation.Resource;
 public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
+    @Resource
+    private OrderStatusTracker orderStatusTracker;
+
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询异步下单的订单状态
+     * @param orderId 订单id
+     * @param timeout 长轮询等待时间（毫秒），订单仍在排队时最多等待该时间，0代表立即返回
+     * @return 订单状态
+     */
+    @GetMapping("status/{id}")
+    public DeferredResult<Result> queryOrderStatus(
+            @PathVariable("id") Long orderId,
+            @RequestParam(value = "timeout", defaultValue = "0") Long timeout) {
+        return orderStatusTracker.await(orderId, UserHolder.getUser().getId(), timeout);
+    }
 }
@@ -0,0 +1,16 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页结果，cursor为null代表没有下一页
+ * truncated为true代表结果达到数量上限被截断，虽然没有下一页，但还有更多数据没有返回
+ */
+@Data
+public class CursorResult {
+    private List<?> list;
+    private String cursor;
+    private boolean truncated;
+}
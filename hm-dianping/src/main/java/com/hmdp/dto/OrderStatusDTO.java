@@ -0,0 +1,40 @@
+package com.hmdp.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 异步下单的订单状态
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderStatusDTO {
+    /**
+     * 已进入下单队列，尚未落库
+     */
+    public static final String QUEUED = "queued";
+    /**
+     * 已落库
+     */
+    public static final String PERSISTED = "persisted";
+    /**
+     * 下单失败
+     */
+    public static final String FAILED = "failed";
+
+    private Long orderId;
+    private String status;
+    private String reason;
+    /**
+     * 下单用户，只用于校验查询者，不返回给前端
+     */
+    @JsonIgnore
+    private Long userId;
+
+    public boolean isFinished() {
+        return PERSISTED.equals(status) || FAILED.equals(status);
+    }
+}
@@ -1,6 +1,7 @@
 package com.hmdp.entity;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
 import lombok.Data;
@@ -57,5 +58,11 @@ public class SeckillVoucher implements Serializable {
      */
     private LocalDateTime updateTime;
 
+    /**
+     * 秒杀库存分片数，保存在Redis中
+     */
+    @TableField(exist = false)
+    private Integer stockShards;
+
 
 }
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,11 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 批量插入订单（一条多值insert ignore语句）
+     * 主键或唯一索引(user_id, voucher_id)冲突的订单被忽略，实现重复投递和一人一单的幂等
+     * @param orders 订单列表
+     * @return 实际插入的行数
+     */
+    int insertBatch(@Param("orders") List<VoucherOrder> orders);
 }
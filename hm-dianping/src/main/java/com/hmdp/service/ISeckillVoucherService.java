@@ -13,4 +13,16 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 预热秒杀券信息（生效时间、失效时间）到Redis和本地缓存，并通知其它节点清除本地缓存
+     * @param seckillVoucher 秒杀券
+     */
+    void preheat(SeckillVoucher seckillVoucher);
+
+    /**
+     * 查询预热的秒杀券信息，依次查询本地缓存、Redis、数据库
+     * @param voucherId 优惠券id
+     * @return 秒杀券，不存在时返回null
+     */
+    SeckillVoucher queryPreheated(Long voucherId);
 }
@@ -0,0 +1,25 @@
+package com.hmdp.service;
+
+import com.hmdp.entity.Shop;
+
+import java.util.Collection;
+
+/**
+ * <p>
+ *  商铺GEO索引（shop:geo:{typeId}）维护
+ * </p>
+ */
+public interface IShopGeoService {
+
+    /**
+     * 通过pipeline批量GEOADD，按商铺类型分组
+     * @param shops 商铺，缺少类型或坐标的商铺被忽略
+     */
+    void geoAdd(Collection<Shop> shops);
+
+    /**
+     * 对比GEO索引与数据库并修复差异
+     * @return 修复的商铺数量
+     */
+    long checkConsistency();
+}
@@ -15,6 +15,9 @@ import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterManager;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import lombok.val;
@@ -29,10 +32,14 @@ import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
 import static com.hmdp.utils.RedisConstants.FEED_KEY;
 
 /**
@@ -51,6 +58,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private IFollowService followService;
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+    @Resource
+    private CacheClient cacheClient;
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
@@ -59,23 +70,21 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 批量查询用户
+        this.queryBlogUser(records);
+        records.forEach(this::isBlogLiked);
         return Result.ok(records);
     }
 
     @Override
     public Result queryBlogById(Long id) {
-        //1.查询博客
-        Blog blog = getById(id);
+        //1.查询博客，布隆过滤器判断一定不存在的id不查询数据库
+        Blog blog = bloomFilterManager.mightContain(RedisConstants.CACHE_BLOG_KEY, id) ? getById(id) : null;
         if (blog==null){
             return Result.fail("博客不存在！");
         }
         //2.根据博客查询用户相关信息
-        queryBlogUser(blog);
+        queryBlogUser(Collections.singletonList(blog));
         //3.查询blog是否被点赞
         isBlogLiked(blog);
         return Result.ok(blog);
@@ -130,13 +139,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             return Result.ok(Collections.emptyList());
         }
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
-        //3.根据用户id查询用户 WHERE id in (5,1) order by field(id,5,1)
-        List<UserDTO> userDTOS = userService.query()
-                .in("id",ids).last("ORDER BY FIELD(id,"+idStr+")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        //3.根据用户id批量查询用户，结果与ids顺序一致
+        List<UserDTO> userDTOS = queryUsers(ids);
+        userDTOS.removeIf(Objects::isNull);
         return Result.ok(userDTOS);
     }
 
@@ -150,6 +155,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if(!isSuccess){
             return Result.fail("发布探店博文失败");
         }
+        bloomFilterManager.add(RedisConstants.CACHE_BLOG_KEY, blog.getId());
         //3.查询作者的所有粉丝id
         List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
         //4.推送博文id给所有的粉丝
@@ -192,9 +198,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         //5.根据id查询blog
         String idStr = StrUtil.join(",",ids);
         List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        //5.2.根据博客批量查询用户相关信息
+        queryBlogUser(blogs);
         for (Blog blog : blogs) {
-            //5.2.根据博客查询用户相关信息
-            queryBlogUser(blog);
             //5.3.查询blog是否被点赞
             isBlogLiked(blog);
         }
@@ -206,10 +212,31 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     }
 
 
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    private void queryBlogUser(List<Blog> blogs) {
+        if(blogs.isEmpty()){
+            return;
+        }
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        List<UserDTO> users = queryUsers(userIds);
+        for (int i = 0; i < blogs.size(); i++) {
+            UserDTO user = users.get(i);
+            if(user != null){
+                blogs.get(i).setName(user.getNickName());
+                blogs.get(i).setIcon(user.getIcon());
+            }
+        }
+    }
+
+    /**
+     * 根据id批量查询用户，先查缓存，未命中的用户通过一次IN查询数据库
+     * @param userIds 用户id
+     * @return 与userIds顺序一致的用户列表，不存在的用户为null
+     */
+    private List<UserDTO> queryUsers(List<Long> userIds) {
+        return cacheClient.queryBatchWithPassThrough(
+                CACHE_USER_KEY, userIds, UserDTO.class,
+                ids -> userService.listByIds(ids).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
     }
 }
@@ -1,11 +1,33 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.cache.impl.TimedCache;
+import cn.hutool.core.date.LocalDateTimeUtil;
+import cn.hutool.core.lang.UUID;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -14,7 +36,167 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    private static final String FIELD_BEGIN = "begin";
+    private static final String FIELD_END = "end";
+    private static final String FIELD_SHARDS = "shards";
+    /**不存在的秒杀券，哈希中只有该字段，并设置有效期*/
+    private static final String FIELD_MISSING = "missing";
+    private static final DefaultRedisScript<Long> MISSING_SCRIPT;
+    private static final int LOCAL_CACHE_CAPACITY = 10000;
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    static {
+        MISSING_SCRIPT = new DefaultRedisScript<>();
+        MISSING_SCRIPT.setLocation(new ClassPathResource("voucher_missing.lua"));
+        MISSING_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**本地缓存的秒杀券信息，秒杀结束后再保留CACHE_NULL_TTL分钟，其它节点预热时失效*/
+    private final LRUCache<Long, SeckillVoucher> localSeckillVouchers = CacheUtil.newLRUCache(LOCAL_CACHE_CAPACITY);
+    /**本地缓存的不存在的秒杀券id，避免每次请求都查询Redis和数据库*/
+    private final TimedCache<Long, Boolean> localMissingVouchers =
+            CacheUtil.newTimedCache(TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL));
+
+    /**
+     * 订阅其它节点的预热通知，然后预热所有未结束的秒杀券
+     */
+    @PostConstruct
+    private void init() {
+        //消息格式：节点id:优惠券id
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.indexOf(':');
+            if (index > 0 && !NODE_ID.equals(body.substring(0, index))) {
+                try {
+                    Long voucherId = Long.valueOf(body.substring(index + 1));
+                    localSeckillVouchers.remove(voucherId);
+                    localMissingVouchers.remove(voucherId);
+                } catch (NumberFormatException e) {
+                    log.error("无法解析秒杀券预热消息: {}", body, e);
+                }
+            }
+        }, new ChannelTopic(RedisConstants.SECKILL_VOUCHER_CHANNEL));
+        List<SeckillVoucher> vouchers = query().gt("end_time", LocalDateTime.now()).list();
+        vouchers.forEach(voucher -> {
+            migrateLegacyKeys(voucher.getVoucherId());
+            store(voucher);
+        });
+        log.info("秒杀券预热完成, 数量={}", vouchers.size());
+    }
+
+    /**
+     * 迁移未带hash tag的旧版未分片库存key和订单key，秒杀脚本只访问带 {voucherId} 的key
+     * 旧版秒杀脚本访问未声明的key，只能运行在单机或主从部署的Redis上，因此可以直接rename
+     */
+    private void migrateLegacyKeys(Long voucherId) {
+        String hashTag = "{" + voucherId + "}";
+        renameLegacyKey(RedisConstants.SECKILL_STOCK_KEY + voucherId, RedisConstants.SECKILL_STOCK_KEY + hashTag);
+        renameLegacyKey(RedisConstants.SECKILL_ORDER_KEY + voucherId, RedisConstants.SECKILL_ORDER_KEY + hashTag);
+    }
+
+    private void renameLegacyKey(String legacyKey, String key) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(legacyKey))
+                && Boolean.TRUE.equals(stringRedisTemplate.renameIfAbsent(legacyKey, key))) {
+            log.info("迁移秒杀key {} -> {}", legacyKey, key);
+        }
+    }
+
+    @Override
+    public void preheat(SeckillVoucher seckillVoucher) {
+        store(seckillVoucher);
+        //通知其它节点清除本地缓存，下次访问时从Redis重新加载
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_VOUCHER_CHANNEL, NODE_ID + ":" + seckillVoucher.getVoucherId());
+    }
+
+    /**
+     * 保存秒杀券信息到Redis和本地缓存
+     */
+    private void store(SeckillVoucher seckillVoucher) {
+        //0.库存分片数，数据库中查询的秒杀券从Redis读取，旧数据没有分片数说明未分片
+        if (seckillVoucher.getStockShards() == null) {
+            String shards = stringRedisTemplate.opsForValue()
+                    .get(RedisConstants.SECKILL_SHARDS_KEY + "{" + seckillVoucher.getVoucherId() + "}");
+            seckillVoucher.setStockShards(shards == null ? 1 : Integer.parseInt(shards));
+        }
+        //1.保存生效、失效时间和库存分片数到Redis，供秒杀脚本校验
+        Map<String, String> fields = new HashMap<>(4);
+        fields.put(FIELD_BEGIN, String.valueOf(LocalDateTimeUtil.toEpochMilli(seckillVoucher.getBeginTime())));
+        fields.put(FIELD_END, String.valueOf(LocalDateTimeUtil.toEpochMilli(seckillVoucher.getEndTime())));
+        fields.put(FIELD_SHARDS, seckillVoucher.getStockShards().toString());
+        String key = voucherKey(seckillVoucher.getVoucherId());
+        stringRedisTemplate.opsForHash().putAll(key, fields);
+        //1.1清除不存在标记及其有效期
+        stringRedisTemplate.opsForHash().delete(key, FIELD_MISSING);
+        stringRedisTemplate.persist(key);
+        //2.保存到本地缓存
+        cacheLocally(seckillVoucher);
+        localMissingVouchers.remove(seckillVoucher.getVoucherId());
+    }
+
+    /**
+     * 本地缓存到秒杀结束后CACHE_NULL_TTL分钟，已结束的秒杀券短暂缓存，避免请求反复访问Redis
+     */
+    private void cacheLocally(SeckillVoucher seckillVoucher) {
+        long untilEnd = LocalDateTimeUtil.toEpochMilli(seckillVoucher.getEndTime()) - System.currentTimeMillis();
+        localSeckillVouchers.put(seckillVoucher.getVoucherId(), seckillVoucher,
+                Math.max(untilEnd, 0) + TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL));
+    }
+
+    @Override
+    public SeckillVoucher queryPreheated(Long voucherId) {
+        //1.查询本地缓存，不刷新最后访问时间，保证缓存在秒杀结束后按时过期
+        SeckillVoucher seckillVoucher = localSeckillVouchers.get(voucherId, false);
+        if (seckillVoucher != null) {
+            return seckillVoucher;
+        }
+        //1.1本地已知不存在
+        if (localMissingVouchers.containsKey(voucherId)) {
+            return null;
+        }
+        //2.查询Redis，其它节点新增的秒杀券
+        String key = voucherKey(voucherId);
+        Map<Object, Object> fields = stringRedisTemplate.opsForHash().entries(key);
+        if (fields.containsKey(FIELD_MISSING)) {
+            //2.1其它节点已确认不存在
+            localMissingVouchers.put(voucherId, Boolean.TRUE);
+            return null;
+        }
+        if (!fields.isEmpty()) {
+            seckillVoucher = new SeckillVoucher();
+            seckillVoucher.setVoucherId(voucherId);
+            seckillVoucher.setBeginTime(LocalDateTimeUtil.of(Long.parseLong((String) fields.get(FIELD_BEGIN))));
+            seckillVoucher.setEndTime(LocalDateTimeUtil.of(Long.parseLong((String) fields.get(FIELD_END))));
+            Object shards = fields.get(FIELD_SHARDS);
+            seckillVoucher.setStockShards(shards == null ? 1 : Integer.parseInt((String) shards));
+            cacheLocally(seckillVoucher);
+            return seckillVoucher;
+        }
+        //3.查询数据库，并预热
+        seckillVoucher = getById(voucherId);
+        if (seckillVoucher == null) {
+            //3.1不存在，在本地和Redis中缓存空结果，新增秒杀券时清除并通知其它节点
+            stringRedisTemplate.execute(MISSING_SCRIPT, Collections.singletonList(key),
+                    FIELD_MISSING, String.valueOf(TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_NULL_TTL)));
+            localMissingVouchers.put(voucherId, Boolean.TRUE);
+            return null;
+        }
+        store(seckillVoucher);
+        return seckillVoucher;
+    }
+
+    /**
+     * 秒杀券信息key，与库存、订单key使用同一个hash tag，保证秒杀脚本访问的key位于同一个slot
+     */
+    private static String voucherKey(Long voucherId) {
+        return RedisConstants.SECKILL_VOUCHER_KEY + "{" + voucherId + "}";
+    }
 }
@@ -0,0 +1,235 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import com.hmdp.service.IShopGeoService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ShopChangedEvent;
+import com.hmdp.utils.SimpleRedisLock;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *  商铺GEO索引维护：全量加载、随商铺变更增量同步、定期一致性检查
+ * </p>
+ */
+@Slf4j
+@Service
+public class ShopGeoServiceImpl implements IShopGeoService {
+
+    /**分页读取数据库/扫描GEO索引的批大小*/
+    private static final int BATCH_SIZE = 500;
+    /**坐标误差容忍度（度），Redis GEO的52位geohash精度约0.6米*/
+    private static final double EPSILON = 1e-5;
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Override
+    public void geoAdd(Collection<Shop> shops) {
+        Map<Long, Map<byte[], Point>> locations = new HashMap<>();
+        for (Shop shop : shops) {
+            if (hasLocation(shop)) {
+                locations.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                        .put(member(shop.getId()), new Point(shop.getX(), shop.getY()));
+            }
+        }
+        if (locations.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Long, Map<byte[], Point>> entry : locations.entrySet()) {
+                connection.geoAdd(geoKey(entry.getKey()), entry.getValue());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 商铺新增、修改（含移动、修改类型）、删除（after为null）后同步GEO索引，事务提交后执行
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChanged(ShopChangedEvent event) {
+        Shop before = event.getBefore();
+        Shop after = event.getAfter();
+        try {
+            //1.类型变化、删除或坐标被清空时，从原类型中删除
+            if (before != null && before.getTypeId() != null
+                    && (!hasLocation(after) || !Objects.equals(before.getTypeId(), after.getTypeId()))) {
+                stringRedisTemplate.opsForZSet().remove(RedisConstants.SHOP_GEO_KEY + before.getTypeId(), before.getId().toString());
+            }
+            //2.新增或移动，GEOADD会覆盖已有成员的坐标
+            if (hasLocation(after)) {
+                stringRedisTemplate.opsForGeo().add(RedisConstants.SHOP_GEO_KEY + after.getTypeId(),
+                        new Point(after.getX(), after.getY()), after.getId().toString());
+            }
+        } catch (RuntimeException e) {
+            //同步失败由一致性检查修复
+            log.error("同步商铺GEO索引失败: {}", after != null ? after.getId() : before.getId(), e);
+        }
+    }
+
+    /**
+     * 定期一致性检查，集群中同一时间只有一个节点执行
+     */
+    @Scheduled(initialDelayString = "${hmdp.geo.check-interval:3600000}",
+            fixedDelayString = "${hmdp.geo.check-interval:3600000}")
+    public void scheduledCheck() {
+        //锁的值为节点和线程标识，释放时由Lua脚本比较后删除，不会删除其它节点的锁
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, RedisConstants.LOCK_GEO_CHECK_NAME);
+        if (!lock.tryLock(TimeUnit.MINUTES.toSeconds(RedisConstants.LOCK_GEO_CHECK_TTL))) {
+            return;
+        }
+        try {
+            checkConsistency();
+        } catch (RuntimeException e) {
+            log.error("商铺GEO索引一致性检查失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long checkConsistency() {
+        long repaired = 0;
+        for (ShopType type : shopTypeMapper.selectList(new QueryWrapper<ShopType>().select("id"))) {
+            repaired += repairMissing(type.getId());
+            repaired += removeOrphans(type.getId());
+        }
+        log.info("商铺GEO索引一致性检查完成，修复{}个", repaired);
+        return repaired;
+    }
+
+    /**
+     * 数据库 -> GEO：分页读取该类型的商铺，批量GEOPOS对比，补齐缺失和坐标不一致的成员
+     */
+    private long repairMissing(Long typeId) {
+        String key = RedisConstants.SHOP_GEO_KEY + typeId;
+        long repaired = 0;
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "type_id", "x", "y")
+                    .eq("type_id", typeId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + BATCH_SIZE));
+            if (shops.isEmpty()) {
+                return repaired;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            List<Shop> located = new ArrayList<>(shops.size());
+            for (Shop shop : shops) {
+                if (hasLocation(shop)) {
+                    located.add(shop);
+                }
+            }
+            if (located.isEmpty()) {
+                continue;
+            }
+            String[] members = located.stream().map(shop -> shop.getId().toString()).toArray(String[]::new);
+            List<Point> positions = stringRedisTemplate.opsForGeo().position(key, members);
+            List<Shop> stale = new ArrayList<>();
+            for (int i = 0; i < located.size(); i++) {
+                Shop shop = located.get(i);
+                Point point = positions == null ? null : positions.get(i);
+                if (point == null) {
+                    meterRegistry.counter("shop.geo.repaired", "kind", "missing").increment();
+                    stale.add(shop);
+                } else if (Math.abs(point.getX() - shop.getX()) > EPSILON || Math.abs(point.getY() - shop.getY()) > EPSILON) {
+                    meterRegistry.counter("shop.geo.repaired", "kind", "moved").increment();
+                    stale.add(shop);
+                }
+            }
+            geoAdd(stale);
+            repaired += stale.size();
+        }
+    }
+
+    /**
+     * GEO -> 数据库：ZSCAN分批扫描成员，删除数据库中已不存在、类型已变化或没有坐标的商铺
+     */
+    private long removeOrphans(Long typeId) {
+        String key = RedisConstants.SHOP_GEO_KEY + typeId;
+        long removed = 0;
+        List<Long> batch = new ArrayList<>(BATCH_SIZE);
+        try (Cursor<ZSetOperations.TypedTuple<String>> cursor = stringRedisTemplate.opsForZSet()
+                .scan(key, ScanOptions.scanOptions().count(BATCH_SIZE).build())) {
+            while (cursor.hasNext()) {
+                batch.add(Long.valueOf(cursor.next().getValue()));
+                if (batch.size() == BATCH_SIZE || !cursor.hasNext()) {
+                    removed += removeOrphans(key, typeId, batch);
+                    batch.clear();
+                }
+            }
+        }
+        return removed;
+    }
+
+    private long removeOrphans(String key, Long typeId, List<Long> ids) {
+        Set<Long> valid = new HashSet<>();
+        for (Object id : shopMapper.selectObjs(new QueryWrapper<Shop>()
+                .select("id")
+                .eq("type_id", typeId)
+                .isNotNull("x")
+                .isNotNull("y")
+                .in("id", ids))) {
+            valid.add(((Number) id).longValue());
+        }
+        List<Object> orphans = new ArrayList<>();
+        for (Long id : ids) {
+            if (!valid.contains(id)) {
+                orphans.add(id.toString());
+            }
+        }
+        if (orphans.isEmpty()) {
+            return 0;
+        }
+        stringRedisTemplate.opsForZSet().remove(key, orphans.toArray());
+        meterRegistry.counter("shop.geo.repaired", "kind", "orphan").increment(orphans.size());
+        return orphans.size();
+    }
+
+    private static boolean hasLocation(Shop shop) {
+        return shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+
+    private static byte[] geoKey(Long typeId) {
+        return (RedisConstants.SHOP_GEO_KEY + typeId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] member(Long id) {
+        return id.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -1,38 +1,50 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilterManager;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.KeysetPager;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopChangedEvent;
+import com.hmdp.utils.ShopGeoIndex;
 import com.hmdp.utils.SystemConstants;
 import io.lettuce.core.api.async.RedisGeoAsyncCommands;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.sql.Time;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_CURSOR_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_CURSOR_TTL;
 import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
 
 /**
@@ -46,14 +58,24 @@ import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    /**游标分页快照最多保存的商铺数量*/
+    @Value("${hmdp.geo.cursor-limit:1000}")
+    private long cursorLimit;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private CacheClient cacheClient;
 
-    /**线程池*/
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR= Executors.newFixedThreadPool(10);
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
 
 
     @Override
@@ -66,6 +88,20 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        //1.写入数据库
+        boolean isSuccess = save(shop);
+        if(!isSuccess){
+            return Result.fail("新增商铺失败");
+        }
+        //2.添加到布隆过滤器
+        bloomFilterManager.add(RedisConstants.CACHE_SHOP_KEY, shop.getId());
+        //3.发布商铺变更事件
+        eventPublisher.publishEvent(new ShopChangedEvent(this, null, shop));
+        return Result.ok(shop.getId());
+    }
+
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -73,28 +109,55 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if(id == null){
             return Result.fail("商铺id不能为空");
         }
-        //1.更新数据库
+        //1.更新数据库，记录更新前后的商铺（参数中可能只包含部分字段）
+        Shop before = this.getById(id);
+        if(before == null){
+            return Result.fail("商铺信息不存在");
+        }
         this.updateById(shop);
-        //2.删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        Shop after = this.getById(id);
+        //2.删除缓存，并通知所有节点删除本地缓存
+        cacheClient.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        //3.发布商铺变更事件，事务提交后处理
+        eventPublisher.publishEvent(new ShopChangedEvent(this, before, after));
         return Result.ok();
     }
 
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        //0.校验页码，避免页码过大导致分页参数溢出或按页码分配过大的数组
+        if(current == null || current < 1){
+            return Result.fail("页码错误");
+        }
         //1.判断是否需要根据坐标查询
         if(x == null || y == null){
             // 如果不需要，则根据类型分页查询
             Page<Shop> page = query()
                     .eq("type_id", typeId)
-                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
             // 返回数据
             return Result.ok(page.getRecords());
         }
-        //2.计算分页参数
+        //2.计算分页参数，超过最大页码时没有数据（5公里内的商铺按距离分页只提供前MAX_GEO_PAGE页）
+        if(current > SystemConstants.MAX_GEO_PAGE){
+            return Result.ok(Collections.emptyList());
+        }
         int from = (current-1) * SystemConstants.DEFAULT_PAGE_SIZE;
         int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
 
+        //2.1本地地理索引已加载时直接查询本地索引
+        ShopGeoIndex.Nearby nearby = shopGeoIndex.search(typeId, x, y, 5000, end);
+        if(nearby != null){
+            if(nearby.ids.length <= from){
+                return Result.ok(Collections.emptyList());
+            }
+            List<Long> ids = new ArrayList<>(nearby.ids.length - from);
+            for (int i = from; i < nearby.ids.length; i++) {
+                ids.add(nearby.ids[i]);
+            }
+            return Result.ok(queryShopsWithDistance(ids, Arrays.copyOfRange(nearby.distances, from, nearby.distances.length)));
+        }
+
         //3.查询redis，按照距离排序，分页  结果：shopId,距离
         String key = SHOP_GEO_KEY + typeId;
         GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()
@@ -113,92 +176,143 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.ok(Collections.emptyList());
         }
         //4.1截取from-end的部分
-        List<Long> ids = new ArrayList<>(list.size());
-        Map<String,Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result ->{
+        List<Long> ids = new ArrayList<>(list.size() - from);
+        double[] distances = new double[list.size() - from];
+        for (int i = from; i < list.size(); i++) {
+            GeoResult<RedisGeoCommands.GeoLocation<String>> result = list.get(i);
             //4.2读取店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
+            ids.add(Long.valueOf(result.getContent().getName()));
             //4.3获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr,distance);
-        });
-        //5.根据id查询shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            distances[i - from] = result.getDistance().getValue();
         }
-        return Result.ok(shops);
+        //5.根据id查询shop
+        return Result.ok(queryShopsWithDistance(ids, distances));
     }
 
-
-    /**
-     * 互斥锁解决缓存击穿
-     * @param id 商铺id
-     * @return Result
-     */
-    public Shop queryWithMutex(Long id) {
-        //1.从Redis中查询商铺缓存
-        String key=RedisConstants.CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        if(StrUtil.isNotBlank(shopJson)){
-            //2.若Redis中存在，返回商铺信息
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        //如果数据不为null，那么就为空字符串
-        if(shopJson != null){
-            return null;
-        }
-        //3.缓存重建
-        //3.1尝试获取互斥锁
-        String lockKey=RedisConstants.LOCK_SHOP_KEY+id;
-        Shop shop = null;
+    @Override
+    public Result queryShopByTypeCursor(Integer typeId, Double x, Double y, String cursor) {
+        //0.不需要根据坐标查询时，按id键集分页，游标就是上一页最后一个商铺的id
+        if(x == null || y == null){
+            Long lastId;
+            try {
+                lastId = StrUtil.isBlank(cursor) ? null : Long.valueOf(cursor);
+            } catch (NumberFormatException e) {
+                return Result.fail("游标格式错误");
+            }
+            return Result.ok(KeysetPager.seek(
+                    query().eq("type_id", typeId), lastId, SystemConstants.DEFAULT_PAGE_SIZE, Shop::getId));
+        }
+        //1.第一页：将5公里内最近的cursorLimit个商铺及距离保存为快照，之后的每一页都从同一个快照读取
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        if(StrUtil.isBlank(cursor)){
+            String token = UUID.randomUUID().toString(true);
+            String snapshotKey = SHOP_GEO_CURSOR_KEY + typeId + ":" + token;
+            //1.1多保存一个商铺，用于判断结果是否被截断（GEOSEARCHSTORE ... COUNT n+1 STOREDIST）
+            Long count = stringRedisTemplate.opsForGeo().searchAndStore(
+                    SHOP_GEO_KEY + typeId, snapshotKey,
+                    GeoReference.fromCoordinate(x, y),
+                    new Distance(5000),
+                    RedisGeoCommands.GeoSearchStoreCommandArgs.newGeoSearchStoreArgs()
+                            .storeDistance().sortAscending().limit(cursorLimit + 1));
+            if(count == null || count == 0){
+                return Result.ok(new CursorResult());
+            }
+            boolean truncated = count > cursorLimit;
+            if(truncated){
+                stringRedisTemplate.opsForZSet().removeRange(snapshotKey, cursorLimit, -1);
+            }
+            stringRedisTemplate.expire(snapshotKey, SHOP_GEO_CURSOR_TTL, TimeUnit.MINUTES);
+            return Result.ok(querySnapshotPage(typeId, token, 0, truncated, size));
+        }
+        //2.解析游标：商铺类型、快照token、下一页在快照中的偏移量、快照是否被截断
+        String token;
+        long offset;
+        boolean truncated;
         try {
-            boolean flag = this.tryLock(lockKey);
-            if(!flag){
-                //3.2获取不成功,休眠一段时间再尝试重新获取锁
-                Thread.sleep(50);
-                return queryWithMutex(id);
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if(parts.length != 4){
+                return Result.fail("游标格式错误");
             }
-            //3.3获取成功
-            //4.若不存在 根据id查询数据库
-            shop = this.getById(id);
-            //5.若数据不存在，将空数据写入到redis缓存中,返回报错
-            if(shop == null){
-                stringRedisTemplate.opsForValue().set(key,"",RedisConstants.CACHE_NULL_TTL,TimeUnit.MINUTES);
-                return null;
+            if(!parts[0].equals(String.valueOf(typeId))){
+                return Result.fail("游标与商铺类型不匹配");
             }
-            //6.将商铺数据写入Redis中
-            stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(shop),RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            //释放锁
-            this.unlock(lockKey);
+            token = parts[1];
+            offset = Long.parseLong(parts[2]);
+            truncated = "1".equals(parts[3]);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("游标格式错误");
+        }
+        //3.快照已过期时不能保证与之前的页面连续，要求重新从第一页查询
+        String snapshotKey = SHOP_GEO_CURSOR_KEY + typeId + ":" + token;
+        if(offset < 0 || !BooleanUtil.isTrue(stringRedisTemplate.expire(snapshotKey, SHOP_GEO_CURSOR_TTL, TimeUnit.MINUTES))){
+            return Result.fail("游标已过期，请重新查询");
         }
-        //返回商铺信息
-        return shop;
+        return Result.ok(querySnapshotPage(typeId, token, offset, truncated, size));
     }
 
     /**
-     * 获取锁
-     * @param key
-     * @return
+     * 从快照中按排名读取一页，快照生成后不再变化，按偏移量分页不会重复或遗漏
+     * 快照ZSET按(距离, 商铺id字典序)排序
+     * @param offset 本页第一个商铺在快照中的排名
+     * @param truncated 快照是否因数量上限被截断
      */
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue()
-                .setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    private CursorResult querySnapshotPage(Integer typeId, String token, long offset, boolean truncated, int size) {
+        //1.多读一条，用于判断是否还有下一页
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .rangeWithScores(SHOP_GEO_CURSOR_KEY + typeId + ":" + token, offset, offset + size);
+        List<Long> ids = new ArrayList<>(size);
+        double[] distances = new double[size];
+        boolean hasMore = false;
+        if(tuples != null){
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                if(ids.size() == size){
+                    hasMore = true;
+                    break;
+                }
+                distances[ids.size()] = tuple.getScore();
+                ids.add(Long.valueOf(tuple.getValue()));
+            }
+        }
+        //2.查询商铺，有下一页时生成游标：typeId:token:下一页的偏移量:是否截断
+        CursorResult result = new CursorResult();
+        result.setList(queryShopsWithDistance(ids, Arrays.copyOf(distances, ids.size())));
+        if(hasMore){
+            String next = typeId + ":" + token + ":" + (offset + size) + ":" + (truncated ? 1 : 0);
+            result.setCursor(Base64.getUrlEncoder().withoutPadding().encodeToString(next.getBytes(StandardCharsets.UTF_8)));
+        } else {
+            //3.最后一页，快照被截断时告知调用方还有更远的商铺没有返回
+            result.setTruncated(truncated);
+        }
+        return result;
     }
 
     /**
-     * 释放锁
-     * @param key
+     * 根据id查询商铺并设置距离，结果与ids顺序一致
+     * 商铺先从缓存批量读取，只有未命中的部分才查询数据库并回填缓存
+     * @param ids 商铺id
+     * @param distances 与ids下标对应的距离
+     * @return 商铺列表
      */
-    private void unlock(String key){
-        stringRedisTemplate.delete(key);
+    private List<Shop> queryShopsWithDistance(List<Long> ids, double[] distances) {
+        if(ids.isEmpty()){
+            return Collections.emptyList();
+        }
+        //1.批量查询缓存，未命中的id一次性查询数据库
+        List<Shop> cached = cacheClient.queryBatchWithPassThrough(
+                RedisConstants.CACHE_SHOP_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, shop -> shop)),
+                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //2.按下标设置距离，本地缓存中的对象是共享的，需要复制后再设置
+        List<Shop> shops = new ArrayList<>(ids.size());
+        for (int i = 0; i < cached.size(); i++) {
+            Shop shop = cached.get(i);
+            if(shop == null){
+                continue;
+            }
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(distances[i]);
+            shops.add(copy);
+        }
+        return shops;
     }
-
 }
@@ -31,7 +31,7 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
     @Override
     public Result queryTypeList() {
         //1.从Redis中读取商铺类型数据
-        String key=RedisConstants.CACHE_SHOP_KEY+"type";
+        String key=RedisConstants.CACHE_SHOP_TYPE_KEY;
         String shopTypeJson = stringRedisTemplate.opsForValue().get(key);
         if(StrUtil.isNotBlank(shopTypeJson)){
             //2.如果Redis存在商铺类型的缓存
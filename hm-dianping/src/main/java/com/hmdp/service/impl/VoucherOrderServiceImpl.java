@@ -1,6 +1,7 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -8,31 +9,48 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.OrderStatusTracker;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWork;
 import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SoldOutRegistry;
 import com.hmdp.utils.UserHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.Redisson;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -50,10 +68,18 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedisIdWork redisIdWork;
     @Resource
-    private RedissonClient redissonClient;
+    private TransactionTemplate transactionTemplate;
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+    @Resource
+    private OrderStatusTracker orderStatusTracker;
+    @Resource
+    private MeterRegistry meterRegistry;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    /**秒杀脚本返回值对应的错误信息*/
+    private static final String[] SECKILL_FAIL_MESSAGES = {null, "库存不足", "不能重复下单", "秒杀活动还未开始", "秒杀活动已结束"};
 
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
@@ -61,110 +87,316 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
+    private static final String QUEUE_NAME = "stream.orders";
+    private static final String GROUP_NAME = "g1";
+    private static final String DEAD_LETTER_QUEUE_NAME = "stream.orders.dlq";
+    private static final String RECOVERY_CONSUMER_NAME = "recovery";
+    /**节点标识，作为消费者名称的前缀，避免不同节点使用相同的消费者身份*/
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+    /**恢复任务每次最多扫描的pending-list页数*/
+    private static final int RECOVERY_MAX_PAGES = 20;
+
+    /**消费者数量*/
+    @Value("${hmdp.order.consumers:4}")
+    private int consumerCount;
+    /**每次XREADGROUP读取的最大消息数*/
+    @Value("${hmdp.order.batch-size:50}")
+    private int batchSize;
+    /**攒批窗口（毫秒）：首条订单到达后最多等待该时间凑满一批再提交*/
+    @Value("${hmdp.order.commit-window:20}")
+    private long commitWindow;
+
+    /**恢复任务执行间隔（毫秒）*/
+    @Value("${hmdp.order.recovery.interval:5000}")
+    private long recoveryInterval;
+    /**pending消息空闲超过该时间（毫秒）后被恢复任务认领*/
+    @Value("${hmdp.order.recovery.min-idle:10000}")
+    private long recoveryMinIdle;
+    /**最大投递次数，超过后转入死信队列*/
+    @Value("${hmdp.order.recovery.max-deliveries:5}")
+    private long maxDeliveries;
+
     //线程池
-    private final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private ExecutorService SECKILL_ORDER_EXECUTOR;
+    private ScheduledExecutorService ORDER_RECOVERY_EXECUTOR;
+
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final AtomicLong deadLetterCount = new AtomicLong();
+    private Counter claimedCounter;
+    private Counter deadLetterCounter;
+    private Counter duplicateOrderCounter;
+    private Counter redeliveredOrderCounter;
 
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        SECKILL_ORDER_EXECUTOR = Executors.newFixedThreadPool(consumerCount);
+        for (int i = 1; i <= consumerCount; i++) {
+            SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler(NODE_ID + "-c" + i));
+        }
+        //监控指标
+        meterRegistry.gauge("order.stream.pending", pendingCount);
+        meterRegistry.gauge("order.stream.lag", lagMillis);
+        meterRegistry.gauge("order.stream.dlq.size", deadLetterCount);
+        claimedCounter = meterRegistry.counter("order.stream.claimed");
+        deadLetterCounter = meterRegistry.counter("order.stream.dead.letter");
+        duplicateOrderCounter = meterRegistry.counter("order.duplicate.suppressed", "type", "duplicate");
+        redeliveredOrderCounter = meterRegistry.counter("order.duplicate.suppressed", "type", "redelivery");
+        //定期恢复pending-list
+        ORDER_RECOVERY_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+        ORDER_RECOVERY_EXECUTOR.scheduleWithFixedDelay(
+                new PendingRecoveryHandler(), recoveryInterval, recoveryInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy(){
+        SECKILL_ORDER_EXECUTOR.shutdownNow();
+        ORDER_RECOVERY_EXECUTOR.shutdownNow();
     }
 
     //线程任务
     private class VoucherOrderHandler implements Runnable{
-        String queueName = "stream.orders";
+        private final String consumerName;
+
+        VoucherOrderHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
         @Override
         public void run() {
-            while (true){
+            //攒批缓冲：同一批订单在一个事务内提交
+            List<MapRecord<String, Object, Object>> buffer = new ArrayList<>(batchSize);
+            long deadline = 0;
+            while (!Thread.currentThread().isInterrupted()){
                 try {
-                    //1.获取队列中的订单信息 XREADGROUP GROUP g1 c1 count 1 BLOCK 2000 STREAMS stream.order >
+                    //1.批量获取队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT n BLOCK 2000 STREAMS stream.orders >
+                    //  缓冲中已有订单时，最多阻塞到攒批窗口结束
+                    long block = buffer.isEmpty() ? 2000 : Math.max(1, deadline - System.currentTimeMillis());
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                            Consumer.from(GROUP_NAME, consumerName),
+                            StreamReadOptions.empty().count(batchSize - buffer.size()).block(Duration.ofMillis(block)),
+                            StreamOffset.create(QUEUE_NAME, ReadOffset.lastConsumed())
                     );
                     //2.判断消息是否获取成功
-                    if (list == null || list.isEmpty()){
-                        //2.1如果获取失败，说明没有信息，继续下一次循环
+                    if (list != null && !list.isEmpty()){
+                        if (buffer.isEmpty()){
+                            deadline = System.currentTimeMillis() + commitWindow;
+                        }
+                        buffer.addAll(list);
+                    }
+                    //2.1缓冲未满且攒批窗口未结束，继续获取
+                    if (buffer.isEmpty()
+                            || (buffer.size() < batchSize && System.currentTimeMillis() < deadline)){
                         continue;
                     }
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    //3.如果获取成功，创建订单
-                    createVoucherOrder(voucherOrder);
-                    //4.ACK确认 SACK stream.order g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
+                    //3.批量创建订单并ACK
+                    List<MapRecord<String, Object, Object>> batch = buffer;
+                    buffer = new ArrayList<>(batchSize);
+                    handleVoucherOrders(batch);
                 } catch (Exception e) {
+                    //未ACK的消息留在pending-list中，由恢复任务认领重试
                     log.error("处理订单异常",e);
-                    handlePendingList();
                 }
             }
         }
 
+    }
 
-        private void handlePendingList() {
-            while (true){
-                try {
-                    //1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 count 1 BLOCK 2000 STREAMS stream.order 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
-                    //2.判断消息是否获取成功
-                    if (list == null || list.isEmpty()){
-                        //2.1如果获取失败，说明pending-list中没有异常信息，结束循环
-                        break;
+    /**
+     * pending-list恢复任务：认领任意消费者名下空闲超时的消息并重试，超过投递次数的消息转入死信队列
+     */
+    private class PendingRecoveryHandler implements Runnable{
+
+        @Override
+        public void run() {
+            try {
+                String start = "-";
+                for (int page = 0; page < RECOVERY_MAX_PAGES && start != null; page++) {
+                    start = recoverPendingList(start);
+                }
+                refreshMetrics();
+            } catch (Exception e) {
+                log.error("恢复pending-list异常", e);
+            }
+        }
+
+        /**
+         * 处理一页pending消息
+         * @param start 起始消息id
+         * @return 下一页的起始消息id，没有更多消息时返回null
+         */
+        private String recoverPendingList(String start) {
+            //1.查询pending-list XPENDING stream.orders g1 start + count
+            PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                    .pending(QUEUE_NAME, GROUP_NAME, Range.closed(start, "+"), batchSize);
+            if (pendingMessages.isEmpty()){
+                return null;
+            }
+            //2.筛选空闲超时的消息，记录投递次数
+            Map<RecordId, Long> deliveries = new HashMap<>(pendingMessages.size());
+            for (PendingMessage pendingMessage : pendingMessages) {
+                if (pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() >= recoveryMinIdle) {
+                    deliveries.put(pendingMessage.getId(), pendingMessage.getTotalDeliveryCount());
+                }
+            }
+            if (!deliveries.isEmpty()){
+                //3.认领消息 XCLAIM stream.orders g1 recovery minIdle id...，其它节点已认领的消息不会被重复认领
+                List<StringRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                        ((StringRedisConnection) connection).xClaim(QUEUE_NAME, GROUP_NAME, RECOVERY_CONSUMER_NAME,
+                                RedisStreamCommands.XClaimOptions.minIdle(Duration.ofMillis(recoveryMinIdle))
+                                        .ids(deliveries.keySet().toArray(new RecordId[0]))));
+                if (claimed != null && !claimed.isEmpty()){
+                    claimedCounter.increment(claimed.size());
+                    List<StringRecord> retries = new ArrayList<>(claimed.size());
+                    for (StringRecord record : claimed) {
+                        if (deliveries.get(record.getId()) >= maxDeliveries){
+                            deadLetter(record, deliveries.get(record.getId()));
+                        } else {
+                            retries.add(record);
+                        }
                     }
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    //3.如果获取成功，创建订单
-                    createVoucherOrder(voucherOrder);
-                    //4.ACK确认 SACK stream.order g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常",e);
+                    retry(retries);
                 }
             }
+            if (pendingMessages.size() < batchSize){
+                return null;
+            }
+            RecordId last = pendingMessages.get(pendingMessages.size() - 1).getId();
+            return RecordId.of(last.getTimestamp(), last.getSequence() + 1).getValue();
         }
 
-    }
+        /**
+         * 重试消息：先整批处理，失败后逐条处理，避免一条异常消息拖累整批
+         */
+        private void retry(List<StringRecord> records) {
+            if (records.isEmpty()){
+                return;
+            }
+            try {
+                handleVoucherOrders(records);
+                return;
+            } catch (Exception e) {
+                log.error("批量重试订单异常，改为逐条重试", e);
+            }
+            for (StringRecord record : records) {
+                try {
+                    handleVoucherOrders(Collections.singletonList(record));
+                } catch (Exception e) {
+                    log.error("重试订单异常, id={}", record.getId(), e);
+                }
+            }
+        }
 
+        /**
+         * 转入死信队列 XADD stream.orders.dlq * ...，并ACK原消息
+         */
+        private void deadLetter(StringRecord record, long deliveryCount) {
+            Map<String, String> value = new HashMap<>(record.getValue());
+            value.put("sourceId", record.getId().getValue());
+            value.put("deliveries", String.valueOf(deliveryCount));
+            stringRedisTemplate.opsForStream().add(DEAD_LETTER_QUEUE_NAME, value);
+            stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, GROUP_NAME, record.getId());
+            deadLetterCounter.increment();
+            log.error("订单消息超过最大投递次数，转入死信队列, id={}, value={}", record.getId(), record.getValue());
+            String orderId = record.getValue().get("id");
+            String userId = record.getValue().get("userId");
+            if (orderId != null && userId != null){
+                orderStatusTracker.markFailed(Long.valueOf(orderId), Long.valueOf(userId), "订单处理失败");
+            }
+        }
 
+        /**
+         * 刷新监控指标：pending消息数、消费延迟（毫秒）、死信队列长度
+         */
+        private void refreshMetrics() {
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(QUEUE_NAME, GROUP_NAME);
+            pendingCount.set(summary.getTotalPendingMessages());
+            StreamInfo.XInfoStream stream = stringRedisTemplate.opsForStream().info(QUEUE_NAME);
+            stringRedisTemplate.opsForStream().groups(QUEUE_NAME).stream()
+                    .filter(group -> GROUP_NAME.equals(group.groupName()))
+                    .findFirst()
+                    .ifPresent(group -> lagMillis.set(
+                            RecordId.of(stream.lastGeneratedId()).getTimestamp()
+                                    - RecordId.of(group.lastDeliveredId()).getTimestamp()));
+            Long size = stringRedisTemplate.opsForStream().size(DEAD_LETTER_QUEUE_NAME);
+            deadLetterCount.set(size == null ? 0 : size);
+        }
+    }
 
-    private void createVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-        Long voucherId = voucherOrder.getVoucherId();
-        //创建锁对象
-        RLock redisLock = redissonClient.getLock("order:" + userId + ":" + voucherId);
-        //尝试获取锁
-        boolean isLock = redisLock.tryLock();
-        //判断是否获取锁成功
-        if (!isLock){
-            //获取锁失败，则返回错误信息
-            log.error("禁止重复下单!");
+    /**
+     * 批量处理一批订单消息：同一事务内落库，提交后一次XACK确认整批消息
+     * @param records 消息列表
+     */
+    private void handleVoucherOrders(List<? extends MapRecord<String, ?, ?>> records) {
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        RecordId[] recordIds = new RecordId[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            MapRecord<String, ?, ?> record = records.get(i);
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            recordIds[i] = record.getId();
         }
-        try {
-            int count = this.query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-            if (count > 0){
-                log.error("不允许重复下单");
+        //1.同一事务内批量创建订单
+        List<VoucherOrder> rejected = transactionTemplate.execute(status -> createVoucherOrders(voucherOrders));
+        //2.ACK确认 XACK stream.orders g1 id1 id2 ...
+        stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, GROUP_NAME, recordIds);
+        //3.更新订单状态
+        Map<Long, Long> persisted = voucherOrders.stream()
+                .collect(Collectors.toMap(VoucherOrder::getId, VoucherOrder::getUserId, (a, b) -> a));
+        for (VoucherOrder voucherOrder : rejected) {
+            persisted.remove(voucherOrder.getId());
+            orderStatusTracker.markFailed(voucherOrder.getId(), voucherOrder.getUserId(), "不能重复下单");
+        }
+        orderStatusTracker.markPersisted(persisted);
+    }
 
+    /**
+     * 批量创建订单：按优惠券分组，每组一条多值insert ignore和一次聚合扣减库存
+     * 一人一单由唯一索引(user_id, voucher_id)保证，无需加锁和查询
+     * @param voucherOrders 订单列表
+     * @return 因重复下单被拒绝的订单
+     */
+    private List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        List<VoucherOrder> rejected = new ArrayList<>();
+        Map<Long, Integer> stockDeductions = new TreeMap<>();
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersOfVoucher.entrySet()) {
+            List<VoucherOrder> orders = entry.getValue();
+            //1.批量创建订单，冲突的订单被忽略
+            int inserted = getBaseMapper().insertBatch(orders);
+            if (inserted > 0){
+                stockDeductions.put(entry.getKey(), inserted);
             }
-            //5.扣减库存
+            if (inserted == orders.size()){
+                continue;
+            }
+            //2.存在被忽略的订单：订单id已落库说明是重复投递，否则是同一用户重复下单
+            Set<Long> persistedIds = this.query().select("id")
+                    .in("id", orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                    .list()
+                    .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+            int duplicates = 0;
+            for (VoucherOrder voucherOrder : orders) {
+                if (!persistedIds.contains(voucherOrder.getId())){
+                    log.error("不允许重复下单");
+                    rejected.add(voucherOrder);
+                    duplicates++;
+                }
+            }
+            duplicateOrderCounter.increment(duplicates);
+            redeliveredOrderCounter.increment(orders.size() - inserted - duplicates);
+        }
+        //3.聚合扣减库存：放在事务最后并按优惠券id排序，缩短热点行锁的持有时间并避免死锁
+        //  库存不足时抛出异常回滚整批订单，消息留在pending-list中由恢复任务逐条重试，最终转入死信队列
+        stockDeductions.forEach((voucherId, count) -> {
             boolean flag = seckillVoucherService.update()
-                    .setSql("stock=stock-1").eq("voucher_id", voucherId).gt("stock",0)
+                    .setSql("stock=stock-" + count).eq("voucher_id", voucherId).ge("stock", count)
                     .update();
             if (!flag){
-                log.error("优惠券库存不足");
+                throw new IllegalStateException("优惠券库存不足, voucherId=" + voucherId + ", count=" + count);
             }
-
-            //创建订单
-            this.save(voucherOrder);
-        } finally {
-            redisLock.unlock();
-        }
-
+        });
+        return rejected;
     }
 
     /**
@@ -175,26 +407,69 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Override
     @Transactional
     public Result seckillVoucher(Long voucherId) {
+        //0.本地已知售罄，直接返回，无需访问Redis
+        if(soldOutRegistry.isSoldOut(voucherId)){
+            return Result.fail("库存不足");
+        }
+        //0.1查询预热的秒杀券信息，本地判断秒杀时间，无需访问数据库
+        SeckillVoucher voucher = seckillVoucherService.queryPreheated(voucherId);
+        if (voucher == null) {
+            return Result.fail("秒杀券不存在");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (voucher.getBeginTime().isAfter(now)) {
+            return Result.fail("秒杀活动还未开始");
+        }
+        if (voucher.getEndTime().isBefore(now)) {
+            return Result.fail("秒杀活动已结束");
+        }
         //获取用户
         Long userId = UserHolder.getUser().getId();
         //获取订单id
         long orderId = redisIdWork.nextId("order");
         //1.执行lua脚本
         Long result = stringRedisTemplate
-                .execute(SECKILL_SCRIPT, Collections.emptyList(),
-                        voucherId.toString(), userId.toString(),String.valueOf(orderId));
+                .execute(SECKILL_SCRIPT,
+                        seckillKeys(voucher),
+                        voucherId.toString(), userId.toString(),String.valueOf(orderId),
+                        String.valueOf(System.currentTimeMillis()));
         int r = result.intValue();
         //2.判断结果是否为0
         if(r != 0){
-            // 2.1 不为0，则说明没有购买资格
-            return Result.fail(r == 1 ? "库存不足":"不能重复下单");
+            if(r == 1){
+                //2.1库存不足，登记售罄并通知其它节点
+                soldOutRegistry.markSoldOut(voucherId);
+            }
+            // 2.2 不为0，则说明没有购买资格
+            return Result.fail(SECKILL_FAIL_MESSAGES[r]);
         }
-        //3获取代理对象
-
-        //3.返回订单id
+        //3.记录订单状态：排队中，订单状态key与秒杀券不在同一个slot，不在秒杀脚本中写入
+        orderStatusTracker.markQueued(orderId, userId);
+        //4.返回订单id
         return Result.ok(orderId);
     }
 
+    /**
+     * 秒杀脚本访问的key：秒杀券信息、已下单用户、订单消息队列、库存分片
+     * 秒杀券相关的key使用同一个hash tag {voucherId}，保证位于同一个slot
+     */
+    private static List<String> seckillKeys(SeckillVoucher voucher) {
+        String hashTag = "{" + voucher.getVoucherId() + "}";
+        int shards = voucher.getStockShards() == null ? 1 : voucher.getStockShards();
+        List<String> keys = new ArrayList<>(3 + shards);
+        keys.add(RedisConstants.SECKILL_VOUCHER_KEY + hashTag);
+        keys.add(RedisConstants.SECKILL_ORDER_KEY + hashTag);
+        keys.add(QUEUE_NAME);
+        if (shards <= 1) {
+            keys.add(RedisConstants.SECKILL_STOCK_KEY + hashTag);
+        } else {
+            for (int i = 0; i < shards; i++) {
+                keys.add(RedisConstants.SECKILL_STOCK_KEY + hashTag + ":" + i);
+            }
+        }
+        return keys;
+    }
+
 
 
 //    /**
@@ -8,12 +8,22 @@ import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillStockAddedEvent;
+import com.hmdp.utils.SeckillVoucherSavedEvent;
+import com.hmdp.utils.SoldOutRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 import javax.annotation.Resource;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -30,6 +40,14 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
+
+    /**秒杀库存分片数，1代表不分片*/
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -50,8 +68,94 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
+        seckillVoucher.setStockShards(Math.max(stockShards, 1));
         seckillVoucherService.save(seckillVoucher);
+        //事务提交后再预热，避免回滚的秒杀券被预热
+        eventPublisher.publishEvent(new SeckillVoucherSavedEvent(this, seckillVoucher));
+    }
+
+    /**
+     * 秒杀券新增后预热秒杀券信息和库存，事务提交后执行
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSeckillVoucherSaved(SeckillVoucherSavedEvent event) {
+        SeckillVoucher seckillVoucher = event.getSeckillVoucher();
+        //预热秒杀券信息
+        seckillVoucherService.preheat(seckillVoucher);
         //保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY+voucher.getId(),voucher.getStock().toString());
+        saveSeckillStock(seckillVoucher.getVoucherId(), seckillVoucher.getStock());
+        //清除售罄标记
+        soldOutRegistry.reset(seckillVoucher.getVoucherId());
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充数量必须大于0");
+        }
+        //1.增加数据库中的库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock=stock+" + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        //2.事务提交后增加Redis中的库存
+        eventPublisher.publishEvent(new SeckillStockAddedEvent(this, voucherId, count));
+        return Result.ok();
+    }
+
+    /**
+     * 补充库存后增加Redis中的库存，并清除所有节点的售罄标记，事务提交后执行
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSeckillStockAdded(SeckillStockAddedEvent event) {
+        Long voucherId = event.getVoucherId();
+        SeckillVoucher seckillVoucher = seckillVoucherService.queryPreheated(voucherId);
+        int shards = seckillVoucher == null || seckillVoucher.getStockShards() == null ? 1 : seckillVoucher.getStockShards();
+        //1.补充的库存按分片均摊，与新增秒杀券时一致
+        Map<String, Integer> shardStocks = splitStock(voucherId, event.getCount(), shards);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            shardStocks.forEach((key, stock) -> conn.incrBy(key, stock));
+            return null;
+        });
+        //2.库存大于0，清除售罄标记
+        soldOutRegistry.reset(voucherId);
+    }
+
+    /**
+     * 保存秒杀库存到Redis中，分片数大于1时将库存拆分到多个分片key，同时保存分片数
+     * 库存key与秒杀券信息、订单key使用同一个hash tag {voucherId}，保证秒杀脚本只访问一个slot
+     * @param voucherId 优惠券id
+     * @param stock 库存
+     */
+    private void saveSeckillStock(Long voucherId, Integer stock) {
+        Map<String, String> values = new HashMap<>(stockShards + 1);
+        splitStock(voucherId, stock, stockShards).forEach((key, shardStock) -> values.put(key, shardStock.toString()));
+        values.put(RedisConstants.SECKILL_SHARDS_KEY + "{" + voucherId + "}", String.valueOf(Math.max(stockShards, 1)));
+        stringRedisTemplate.opsForValue().multiSet(values);
+    }
+
+    /**
+     * 将库存拆分到各个库存key，余数分摊到前几个分片
+     * @param voucherId 优惠券id
+     * @param stock 库存
+     * @param shards 分片数，1代表不分片
+     * @return 库存key到库存的映射
+     */
+    private static Map<String, Integer> splitStock(Long voucherId, int stock, int shards) {
+        String hashTag = "{" + voucherId + "}";
+        Map<String, Integer> shardStocks = new HashMap<>(shards + 1);
+        if (shards <= 1) {
+            shardStocks.put(RedisConstants.SECKILL_STOCK_KEY + hashTag, stock);
+            return shardStocks;
+        }
+        for (int i = 0; i < shards; i++) {
+            shardStocks.put(RedisConstants.SECKILL_STOCK_KEY + hashTag + ":" + i, stock / shards + (i < stock % shards ? 1 : 0));
+        }
+        return shardStocks;
     }
 }
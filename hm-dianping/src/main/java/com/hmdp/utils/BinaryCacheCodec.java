@@ -0,0 +1,324 @@
+package com.hmdp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 二进制编解码器：按字段声明顺序直接读写字段值，不经过JSON中间结构
+ * 格式：魔数(2字节) 种类(1字节，0:对象 1:RedisData) [RedisData: 过期时间 重建耗时] 字段指纹(4字节) 字段值...
+ * 每个字段先写1字节的非空标记，整数使用zigzag变长编码，字符串为长度+UTF-8字节，时间为UTC秒数+纳秒
+ * 字段指纹由类名、字段名和类型计算，类的字段变化后旧数据解码返回null，由调用方按未命中处理
+ * 只支持字段类型为Long/Integer/Double/Boolean/String/LocalDateTime（含基本类型）的类
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC_0 = (byte) 0xB1;
+    private static final byte MAGIC_1 = (byte) 0xC0;
+    private static final byte KIND_OBJECT = 0;
+    private static final byte KIND_LOGICAL = 1;
+
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return schema(type) != null;
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length > 2 && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Writer out = new Writer();
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        if (value instanceof RedisData) {
+            RedisData redisData = (RedisData) value;
+            out.write(KIND_LOGICAL);
+            writeDateTime(out, redisData.getExpireTime());
+            out.writeVarLong(redisData.getDelta() == null ? 0 : redisData.getDelta());
+            writeObject(out, redisData.getData());
+        } else {
+            out.write(KIND_OBJECT);
+            writeObject(out, value);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes, 2, bytes.length - 2);
+            if (in.get() != KIND_OBJECT) {
+                return null;
+            }
+            return readObject(in, type);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | DateTimeException e) {
+            //数据被截断或损坏，按未命中处理
+            return null;
+        }
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] bytes, Class<?> dataType) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes, 2, bytes.length - 2);
+            if (in.get() != KIND_LOGICAL) {
+                return null;
+            }
+            RedisData redisData = new RedisData();
+            redisData.setExpireTime(readDateTime(in));
+            long delta = readVarLong(in);
+            redisData.setDelta(delta == 0 ? null : delta);
+            Object data = readObject(in, dataType);
+            if (data == null) {
+                return null;
+            }
+            redisData.setData(data);
+            return redisData;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | DateTimeException e) {
+            //数据被截断或损坏，按未命中处理
+            return null;
+        }
+    }
+
+    private void writeObject(Writer out, Object value) {
+        Schema schema = schema(value.getClass());
+        if (schema == null) {
+            throw new IllegalArgumentException("不支持二进制编码的类型: " + value.getClass().getName());
+        }
+        out.writeInt(schema.fingerprint);
+        try {
+            for (int i = 0; i < schema.fields.length; i++) {
+                Object fieldValue = schema.fields[i].get(value);
+                if (fieldValue == null) {
+                    out.write(0);
+                    continue;
+                }
+                out.write(1);
+                switch (schema.types[i]) {
+                    case LONG:
+                        out.writeVarLong((Long) fieldValue);
+                        break;
+                    case INT:
+                        out.writeVarLong((Integer) fieldValue);
+                        break;
+                    case DOUBLE:
+                        out.writeLong(Double.doubleToRawLongBits((Double) fieldValue));
+                        break;
+                    case BOOLEAN:
+                        out.write((Boolean) fieldValue ? 1 : 0);
+                        break;
+                    case STRING:
+                        byte[] bytes = ((String) fieldValue).getBytes(StandardCharsets.UTF_8);
+                        out.writeVarLong(bytes.length);
+                        out.write(bytes, 0, bytes.length);
+                        break;
+                    default:
+                        writeDateTime(out, (LocalDateTime) fieldValue);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private <T> T readObject(ByteBuffer in, Class<T> type) {
+        Schema schema = schema(type);
+        if (schema == null || in.getInt() != schema.fingerprint) {
+            return null;
+        }
+        try {
+            T value = type.cast(schema.constructor.newInstance());
+            for (int i = 0; i < schema.fields.length; i++) {
+                if (in.get() == 0) {
+                    continue;
+                }
+                Object fieldValue;
+                switch (schema.types[i]) {
+                    case LONG:
+                        fieldValue = readVarLong(in);
+                        break;
+                    case INT:
+                        fieldValue = (int) readVarLong(in);
+                        break;
+                    case DOUBLE:
+                        fieldValue = Double.longBitsToDouble(in.getLong());
+                        break;
+                    case BOOLEAN:
+                        fieldValue = in.get() != 0;
+                        break;
+                    case STRING:
+                        int length = (int) readVarLong(in);
+                        if (length < 0 || length > in.remaining()) {
+                            throw new BufferUnderflowException();
+                        }
+                        fieldValue = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+                        in.position(in.position() + length);
+                        break;
+                    default:
+                        fieldValue = readDateTime(in);
+                }
+                schema.fields[i].set(value, fieldValue);
+            }
+            return value;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeDateTime(Writer out, LocalDateTime time) {
+        out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+        out.writeVarLong(time.getNano());
+    }
+
+    private static LocalDateTime readDateTime(ByteBuffer in) {
+        long seconds = readVarLong(in);
+        return LocalDateTime.ofEpochSecond(seconds, (int) readVarLong(in), ZoneOffset.UTC);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long raw = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("变长整数过长");
+            }
+            b = in.get();
+            raw |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        //zigzag解码
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    /**
+     * 获取类的字段结构，不支持的类返回null
+     */
+    private Schema schema(Class<?> type) {
+        Schema schema = schemas.computeIfAbsent(type, t -> {
+            Schema s = Schema.of(t);
+            return s == null ? Schema.UNSUPPORTED : s;
+        });
+        return schema == Schema.UNSUPPORTED ? null : schema;
+    }
+
+    private enum FieldType {
+        LONG, INT, DOUBLE, BOOLEAN, STRING, DATE_TIME;
+
+        static FieldType of(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return LONG;
+            }
+            if (type == Integer.class || type == int.class) {
+                return INT;
+            }
+            if (type == Double.class || type == double.class) {
+                return DOUBLE;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return BOOLEAN;
+            }
+            if (type == String.class) {
+                return STRING;
+            }
+            if (type == LocalDateTime.class) {
+                return DATE_TIME;
+            }
+            return null;
+        }
+    }
+
+    private static class Schema {
+        /**不支持的类*/
+        private static final Schema UNSUPPORTED = new Schema(null, new Field[0], new FieldType[0], 0);
+
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final FieldType[] types;
+        private final int fingerprint;
+
+        private Schema(Constructor<?> constructor, Field[] fields, FieldType[] types, int fingerprint) {
+            this.constructor = constructor;
+            this.fields = fields;
+            this.types = types;
+            this.fingerprint = fingerprint;
+        }
+
+        static Schema of(Class<?> type) {
+            if (type == RedisData.class) {
+                return null;
+            }
+            Constructor<?> constructor;
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+            List<Field> fields = new ArrayList<>();
+            List<FieldType> types = new ArrayList<>();
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (Field field : type.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                FieldType fieldType = FieldType.of(field.getType());
+                if (fieldType == null) {
+                    return null;
+                }
+                field.setAccessible(true);
+                fields.add(field);
+                types.add(fieldType);
+                signature.append(';').append(field.getName()).append(':').append(fieldType);
+            }
+            return new Schema(constructor, fields.toArray(new Field[0]),
+                    types.toArray(new FieldType[0]), signature.toString().hashCode());
+        }
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+
+        private Writer() {
+            super(128);
+        }
+
+        void writeVarLong(long value) {
+            //zigzag编码，负数也只占少量字节
+            long raw = (value << 1) ^ (value >> 63);
+            while ((raw & ~0x7FL) != 0) {
+                write((int) ((raw & 0x7F) | 0x80));
+                raw >>>= 7;
+            }
+            write((int) raw);
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 基于long数组的布隆过滤器，可与Redis的bitmap互相转换
+ * Redis的bitmap中偏移量o位于第o/8个字节的第(7-o%8)位（高位在前）
+ */
+public class BloomFilter {
+
+    /**位数*/
+    private final long bits;
+    /**哈希函数个数*/
+    private final int hashes;
+    private final AtomicLongArray words;
+
+    private BloomFilter(long bits, int hashes) {
+        this.bits = bits;
+        this.hashes = hashes;
+        this.words = new AtomicLongArray((int) ((bits + 63) >>> 6));
+    }
+
+    /**
+     * 根据预计元素数量和误判率创建布隆过滤器
+     * @param expectedInsertions 预计元素数量
+     * @param fpp 误判率
+     * @return 布隆过滤器
+     */
+    public static BloomFilter create(long expectedInsertions, double fpp) {
+        long bits = optimalBits(expectedInsertions, fpp);
+        return new BloomFilter(bits, optimalHashes(expectedInsertions, bits));
+    }
+
+    private static long optimalBits(long expectedInsertions, double fpp) {
+        return Math.max(64, (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+    }
+
+    private static int optimalHashes(long expectedInsertions, long bits) {
+        return Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     * 计算元素对应的位偏移量
+     * @param id 元素
+     * @return 偏移量
+     */
+    public long[] offsets(long id) {
+        return offsets(id, bits, hashes);
+    }
+
+    /**
+     * 计算元素对应的位偏移量，无需创建过滤器
+     * @param id 元素
+     * @param expectedInsertions 预计元素数量
+     * @param fpp 误判率
+     * @return 偏移量
+     */
+    public static long[] offsets(long id, long expectedInsertions, double fpp) {
+        long bits = optimalBits(expectedInsertions, fpp);
+        return offsets(id, bits, optimalHashes(expectedInsertions, bits));
+    }
+
+    private static long[] offsets(long id, long bits, int hashes) {
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        long[] offsets = new long[hashes];
+        for (int i = 0; i < hashes; i++) {
+            offsets[i] = Long.remainderUnsigned(h1 + i * h2, bits);
+        }
+        return offsets;
+    }
+
+    public boolean mightContain(long id) {
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long offset = Long.remainderUnsigned(h1 + i * h2, bits);
+            if ((words.get((int) (offset >>> 6)) & (1L << offset)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void put(long id) {
+        for (long offset : offsets(id)) {
+            setBit(offset);
+        }
+    }
+
+    /**
+     * 转换为Redis的bitmap字节
+     */
+    public byte[] toRedisBytes() {
+        byte[] bytes = new byte[(int) ((bits + 7) >>> 3)];
+        for (int i = 0; i < bytes.length; i++) {
+            long word = words.get(i >>> 3);
+            // 第i个字节对应word中的第(i%8)*8~(i%8)*8+7位，高位在前需要反转
+            bytes[i] = (byte) (Integer.reverse((int) (word >>> ((i & 7) << 3)) & 0xFF) >>> 24);
+        }
+        return bytes;
+    }
+
+    /**
+     * 从Redis的bitmap字节加载
+     */
+    public void loadRedisBytes(byte[] bytes) {
+        int length = Math.min(bytes.length, (int) ((bits + 7) >>> 3));
+        for (int i = 0; i < length; i++) {
+            long b = Integer.reverse(bytes[i] & 0xFF) >>> 24;
+            if (b != 0) {
+                int index = i >>> 3;
+                long mask = b << ((i & 7) << 3);
+                long word;
+                do {
+                    word = words.get(index);
+                } while (!words.compareAndSet(index, word, word | mask));
+            }
+        }
+    }
+
+    private void setBit(long offset) {
+        int index = (int) (offset >>> 6);
+        long mask = 1L << offset;
+        long word;
+        do {
+            word = words.get(index);
+            if ((word & mask) != 0) {
+                return;
+            }
+        } while (!words.compareAndSet(index, word, word | mask));
+    }
+
+    /**
+     * 64位混合函数(SplitMix64)
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
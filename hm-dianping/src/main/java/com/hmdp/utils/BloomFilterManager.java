@@ -0,0 +1,301 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 布隆过滤器管理：按缓存key前缀注册，用于在访问Redis和数据库之前拦截一定不存在的id（缓存穿透）
+ * 过滤器以bitmap形式保存在Redis中 bloom:{缓存key前缀}，每个节点保留一份本地副本，判断时无需访问Redis
+ * 启动时从Redis加载，Redis中不存在则扫描数据库中已有的id构建；新增数据时同步写入本地副本和Redis，
+ * 并通过发布订阅通知其它节点；定期重建以清除已删除的id
+ * 过滤器加载完成之前一律放行
+ */
+@Slf4j
+@Component
+public class BloomFilterManager implements MessageListener {
+
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+    private static final String SEPARATOR = "|";
+    private static final String OP_ADD = "add";
+    private static final String OP_RELOAD = "reload";
+    /**扫描数据库时每页的id数量*/
+    private static final int SCAN_PAGE_SIZE = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private BlogMapper blogMapper;
+
+    /**预计元素数量*/
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+    /**误判率*/
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    private final Map<String, Holder> holders = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        register(RedisConstants.CACHE_SHOP_KEY, shopMapper);
+        register(RedisConstants.CACHE_BLOG_KEY, blogMapper);
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.BLOOM_CHANNEL));
+        for (Holder holder : holders.values()) {
+            try {
+                if (!reload(holder)) {
+                    rebuild(holder);
+                }
+            } catch (RuntimeException e) {
+                log.error("加载布隆过滤器失败: {}", holder.name, e);
+            }
+        }
+    }
+
+    /**
+     * 判断id是否可能存在，未注册或尚未加载的过滤器一律返回true
+     * @param name 过滤器名称（缓存key前缀）
+     * @param id 数据id
+     * @return false代表一定不存在
+     */
+    public boolean mightContain(String name, Object id) {
+        Holder holder = holders.get(name);
+        if (holder == null || !(id instanceof Number)) {
+            return true;
+        }
+        BloomFilter filter = holder.filter;
+        return filter == null || filter.mightContain(((Number) id).longValue());
+    }
+
+    /**
+     * 新增数据后添加id，并通知其它节点
+     * @param name 过滤器名称（缓存key前缀）
+     * @param id 数据id
+     */
+    public void add(String name, Long id) {
+        Holder holder = holders.get(name);
+        if (holder == null || id == null) {
+            return;
+        }
+        addLocal(holder, id);
+        setBits(holder, Collections.singletonList(id));
+        publish(OP_ADD, name, id);
+    }
+
+    /**
+     * 定期重建，集群中同一时间只有一个节点执行，完成后通知其它节点重新加载
+     */
+    @Scheduled(initialDelayString = "${hmdp.bloom.rebuild-interval:3600000}",
+            fixedDelayString = "${hmdp.bloom.rebuild-interval:3600000}")
+    public void rebuildAll() {
+        for (Holder holder : holders.values()) {
+            try {
+                rebuild(holder);
+            } catch (RuntimeException e) {
+                log.error("重建布隆过滤器失败: {}", holder.name, e);
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String[] parts = body.split("\\" + SEPARATOR);
+        if (parts.length < 3 || NODE_ID.equals(parts[0])) {
+            return;
+        }
+        Holder holder = holders.get(parts[2]);
+        if (holder == null) {
+            return;
+        }
+        try {
+            if (OP_ADD.equals(parts[1]) && parts.length == 4) {
+                addLocal(holder, Long.parseLong(parts[3]));
+            } else if (OP_RELOAD.equals(parts[1])) {
+                reload(holder);
+            }
+        } catch (RuntimeException e) {
+            log.error("处理布隆过滤器消息失败: {}", body, e);
+        }
+    }
+
+    private <T> void register(String name, BaseMapper<T> mapper) {
+        holders.put(name, new Holder(name, mapper));
+    }
+
+    /**
+     * 添加到本地副本，重建/加载期间同时添加到新的过滤器，并记录下来，在新过滤器写入Redis后补写
+     */
+    private void addLocal(Holder holder, long id) {
+        BloomFilter building = holder.building;
+        if (building != null) {
+            building.put(id);
+            holder.addedWhileBuilding.add(id);
+        }
+        BloomFilter filter = holder.filter;
+        if (filter != null) {
+            filter.put(id);
+        }
+    }
+
+    /**
+     * 在Redis的bitmap中设置id对应的位
+     */
+    private void setBits(Holder holder, Collection<Long> ids) {
+        byte[] key = redisKey(holder);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long id : ids) {
+                for (long offset : BloomFilter.offsets(id, expectedInsertions, fpp)) {
+                    connection.setBit(key, offset, true);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 从Redis加载过滤器
+     * @return Redis中不存在时返回false
+     */
+    private boolean reload(Holder holder) {
+        synchronized (holder) {
+            BloomFilter filter = BloomFilter.create(expectedInsertions, fpp);
+            holder.building = filter;
+            try {
+                byte[] key = redisKey(holder);
+                byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key));
+                if (bytes == null) {
+                    return false;
+                }
+                filter.loadRedisBytes(bytes);
+                holder.filter = filter;
+                log.info("布隆过滤器 {} 已从Redis加载", holder.name);
+                return true;
+            } finally {
+                holder.building = null;
+                holder.addedWhileBuilding.clear();
+            }
+        }
+    }
+
+    /**
+     * 扫描数据库中已有的id重建过滤器，写入Redis后通知其它节点重新加载
+     */
+    private void rebuild(Holder holder) {
+        String lockKey = RedisConstants.LOCK_BLOOM_KEY + holder.name;
+        Boolean locked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(lockKey, NODE_ID, RedisConstants.LOCK_BLOOM_TTL, TimeUnit.SECONDS);
+        if (!BooleanUtil.isTrue(locked)) {
+            //其它节点正在重建，完成后会通知本节点加载
+            return;
+        }
+        try {
+            synchronized (holder) {
+                BloomFilter filter = BloomFilter.create(expectedInsertions, fpp);
+                holder.building = filter;
+                try {
+                    long count = scanIds(holder, filter);
+                    byte[] key = redisKey(holder);
+                    byte[] bytes = filter.toRedisBytes();
+                    stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.set(key, bytes));
+                    holder.filter = filter;
+                    holder.building = null;
+                    //重建期间新增的id可能被上面的SET覆盖，补写到Redis
+                    List<Long> added = new ArrayList<>(holder.addedWhileBuilding);
+                    if (!added.isEmpty()) {
+                        setBits(holder, added);
+                    }
+                    log.info("布隆过滤器 {} 重建完成，共 {} 个id", holder.name, count);
+                } finally {
+                    holder.building = null;
+                    holder.addedWhileBuilding.clear();
+                }
+            }
+            publish(OP_RELOAD, holder.name, null);
+        } finally {
+            if (NODE_ID.equals(stringRedisTemplate.opsForValue().get(lockKey))) {
+                stringRedisTemplate.delete(lockKey);
+            }
+        }
+    }
+
+    /**
+     * 按id分页扫描数据库
+     * @return 扫描到的id数量
+     */
+    @SuppressWarnings("unchecked")
+    private long scanIds(Holder holder, BloomFilter filter) {
+        BaseMapper<Object> mapper = (BaseMapper<Object>) holder.mapper;
+        long count = 0;
+        long lastId = 0;
+        while (true) {
+            List<Object> ids = mapper.selectObjs(new QueryWrapper<>()
+                    .select("id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + SCAN_PAGE_SIZE));
+            for (Object id : ids) {
+                lastId = ((Number) id).longValue();
+                filter.put(lastId);
+            }
+            count += ids.size();
+            if (ids.size() < SCAN_PAGE_SIZE) {
+                return count;
+            }
+        }
+    }
+
+    private byte[] redisKey(Holder holder) {
+        return (RedisConstants.BLOOM_KEY + holder.name).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void publish(String op, String name, Long id) {
+        String message = NODE_ID + SEPARATOR + op + SEPARATOR + name + (id == null ? "" : SEPARATOR + id);
+        stringRedisTemplate.convertAndSend(RedisConstants.BLOOM_CHANNEL, message);
+    }
+
+    private static class Holder {
+        private final String name;
+        private final BaseMapper<?> mapper;
+        /**当前使用的过滤器，为null代表尚未加载*/
+        private volatile BloomFilter filter;
+        /**正在重建/加载的过滤器*/
+        private volatile BloomFilter building;
+        private final Queue<Long> addedWhileBuilding = new ConcurrentLinkedQueue<>();
+
+        private Holder(String name, BaseMapper<?> mapper) {
+            this.name = name;
+            this.mapper = mapper;
+        }
+    }
+}
@@ -1,115 +1,628 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.cache.impl.TimedCache;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
+/**
+ * 缓存工具：本地缓存(L1) + Redis(L2)
+ * L1保存反序列化后的对象，命中时无需访问Redis和解码；返回的对象为共享实例，调用方不应修改
+ * Redis中的数据由CacheCodec编码，可选JSON或二进制，读取时根据数据格式自动选择解码器
+ * 写入和删除时通过Redis发布订阅通知所有节点删除L1中的数据
+ * 热点key（见HotKeyDetector）额外保存一份短有效期的本地副本，不会被其它key挤出L1
+ * 缓存未命中时，本节点同一key的并发请求合并为一次加载，集群中通过分布式锁保证同一key只有一个节点查询数据库
+ * 对注册了布隆过滤器的key前缀，一定不存在的id直接返回null，不访问Redis和数据库
+ */
 @Component
 @Slf4j
 public class CacheClient {
 
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+    /**L1中的空值标记*/
+    private static final Object NULL_VALUE = new Object();
+    /**等待其它节点加载数据时，每次等待的最长时间（毫秒）*/
+    private static final long FILL_WAIT_MILLIS = 200L;
+
+    private static final String BINARY_CODEC_NAME = "binary";
+    private static final CacheCodec JSON_CODEC = new JsonCacheCodec();
+    private static final CacheCodec BINARY_CODEC = new BinaryCacheCodec();
+    /**Redis中的空值*/
+    private static final byte[] EMPTY = new byte[0];
+
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR= Executors.newFixedThreadPool(10);
+    @Resource
+    private RedisTemplate<String, byte[]> cacheRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private CacheRebuildScheduler rebuildScheduler;
+
+    /**本地缓存容量*/
+    @Value("${hmdp.cache.local.capacity:10000}")
+    private int localCapacity;
+    /**本地缓存有效期（毫秒）*/
+    @Value("${hmdp.cache.local.ttl:30000}")
+    private long localTtl;
+    /**热点key本地副本的有效期（毫秒）*/
+    @Value("${hmdp.cache.hot-key.ttl:2000}")
+    private long hotReplicaTtl;
+    /**逻辑过期数据提前刷新的系数，越大越早刷新，0代表不提前刷新*/
+    @Value("${hmdp.cache.early-refresh-beta:1.0}")
+    private double earlyRefreshBeta;
+    /**写入缓存使用的编码：json 或 binary，读取时两种格式都支持*/
+    @Value("${hmdp.cache.codec:json}")
+    private String codecName;
+
+    private LRUCache<String, Object> localCache;
+    /**热点key的本地副本*/
+    private TimedCache<String, Object> hotReplica;
+    /**本节点正在进行的加载*/
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+    /**等待其它节点加载完成的信号*/
+    private final Map<String, CompletableFuture<Void>> fillSignals = new ConcurrentHashMap<>();
+    private final Map<String, CacheMeters> cacheMeters = new ConcurrentHashMap<>();
 
     public CacheClient(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @PostConstruct
+    private void init(){
+        localCache = CacheUtil.newLRUCache(localCapacity, localTtl);
+        hotReplica = CacheUtil.newTimedCache(hotReplicaTtl);
+        hotReplica.schedulePrune(hotReplicaTtl);
+        //热点key降级后删除热点副本
+        hotKeyDetector.addDemotionListener(hotReplica::remove);
+        //订阅其它节点的失效通知，消息格式：节点id:key
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.indexOf(':');
+            if (index > 0 && !NODE_ID.equals(body.substring(0, index))) {
+                String key = body.substring(index + 1);
+                removeLocal(key);
+                //唤醒等待该key加载完成的线程
+                CompletableFuture<Void> signal = fillSignals.remove(key);
+                if (signal != null) {
+                    signal.complete(null);
+                }
+            }
+        }, new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+    }
+
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+        cacheRedisTemplate.opsForValue().set(key, encode(value),time,unit);
+        invalidate(key);
     }
 
     public void setWithLogic(String key,Object value,Long time,TimeUnit unit){
+        setWithLogic(key, value, time, unit, null);
+    }
+
+    /**
+     * 写入逻辑过期数据，并记录重建耗时
+     * @param delta 重建缓存的耗时（毫秒）
+     */
+    public void setWithLogic(String key,Object value,Long time,TimeUnit unit,Long delta){
         RedisData redisDate=new RedisData();
         redisDate.setData(value);
         redisDate.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(redisDate));
+        redisDate.setDelta(delta);
+        cacheRedisTemplate.opsForValue().set(key,encode(redisDate));
+        invalidate(key);
+    }
+
+    /**
+     * 通过pipeline批量写入缓存，用于预热
+     * 有效期在time的基础上随机增加最多20%，避免同一批写入的数据同时过期
+     * 只删除本节点的本地缓存，不逐个通知其它节点
+     * @param values key到数据的映射
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit){
+        long ttl = unit.toSeconds(time);
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                long jitter = ThreadLocalRandom.current().nextLong(ttl / 5 + 1);
+                connection.setEx(entry.getKey().getBytes(StandardCharsets.UTF_8), ttl + jitter, encode(entry.getValue()));
+            }
+            return null;
+        });
+        for (String key : values.keySet()) {
+            removeLocal(key);
+        }
+    }
+
+    /**
+     * 删除缓存，并通知所有节点删除本地缓存
+     * @param key 缓存key
+     */
+    public void delete(String key){
+        stringRedisTemplate.delete(key);
+        invalidate(key);
     }
 
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback,Long time,TimeUnit unit){
         String key=keyPrefix+id;
+        CacheMeters meters = meters(keyPrefix);
+        //0.查询本地缓存
+        Object local = getLocal(key);
+        if(local == NULL_VALUE){
+            meters.localNullHits.increment();
+            return null;
+        }
+        if(type.isInstance(local)){
+            meters.localHits.increment();
+            return type.cast(local);
+        }
+        //0.1布隆过滤器判断id一定不存在，直接返回
+        if(!bloomFilterManager.mightContain(keyPrefix, id)){
+            meters.rejected.increment();
+            return null;
+        }
         //1.从redis中查询数据
-        String json = stringRedisTemplate.opsForValue().get(key);
+        Object cached = getFromRedis(key, type);
         //2.判断是否存在
-        if(StrUtil.isNotBlank(json)){
-            //3.存在直接返回
-            return JSONUtil.toBean(json, type);
+        if(cached != null){
+            //3.存在直接返回，空值返回null
+            if(cached == NULL_VALUE){
+                meters.redisNullHits.increment();
+                return null;
+            }
+            meters.redisHits.increment();
+            return type.cast(cached);
         }
-        //4.判断是否是空值
-        if(json != null){
+        meters.misses.increment();
+
+        //5.未命中，本节点同一key的并发请求合并为一次加载
+        Object loaded = singleFlight(keyPrefix, key, () -> loadWithLock(keyPrefix, key, id, type, dbFallback, time, unit));
+        return loaded == NULL_VALUE ? null : type.cast(loaded);
+    }
+
+    /**
+     * 本节点内同一key同时只有一个线程执行加载，其余线程等待并共享加载结果
+     * @param keyPrefix key前缀，用于统计
+     * @param key 缓存key
+     * @param loader 加载逻辑
+     * @return 加载结果
+     */
+    private Object singleFlight(String keyPrefix, String key, Supplier<Object> loader){
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlightLoads.putIfAbsent(key, future);
+        if(existing != null){
+            meterRegistry.counter("cache.load.coalesced", "prefix", keyPrefix, "scope", "local").increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            Object value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    /**
+     * 在分布式锁的保护下查询数据库并写入Redis，集群中同一key同时只有一个节点查询数据库
+     * 获取锁失败时等待持有锁的节点写入Redis（通过失效通知唤醒）后重新读取；等待超过锁的有效期则直接查询数据库
+     * @return 查询结果，不存在时返回NULL_VALUE
+     */
+    private <R,ID> Object loadWithLock(
+            String keyPrefix, String key, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, key);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(RedisConstants.LOCK_SHOP_TTL);
+        while (true) {
+            boolean locked = lock.tryLock(RedisConstants.LOCK_SHOP_TTL);
+            if(!locked){
+                meters(keyPrefix).lockContended.increment();
+            }
+            if(locked || System.currentTimeMillis() > deadline){
+                try {
+                    //1.获取锁后再次检查Redis，其它节点可能已经写入
+                    Object cached = getFromRedis(key, type);
+                    if(cached != null){
+                        return cached;
+                    }
+                    //2.查询数据库
+                    R r = timeLoad(keyPrefix, () -> dbFallback.apply(id));
+                    //3.写入Redis，不存在则写入空值，并通知等待的节点
+                    if(r == null){
+                        cacheRedisTemplate.opsForValue().set(key,EMPTY,RedisConstants.CACHE_NULL_TTL,TimeUnit.MINUTES);
+                    }else {
+                        cacheRedisTemplate.opsForValue().set(key,encode(r),time,unit);
+                    }
+                    invalidate(key);
+                    Object value = r == null ? NULL_VALUE : r;
+                    putLocal(key, value);
+                    return value;
+                } finally {
+                    if(locked){
+                        lock.unlock();
+                    }
+                }
+            }
+            //4.其它节点正在加载，等待其写入后重新读取
+            awaitFill(key);
+            Object cached = getFromRedis(key, type);
+            if(cached != null){
+                meterRegistry.counter("cache.load.coalesced", "prefix", keyPrefix, "scope", "remote").increment();
+                return cached;
+            }
+        }
+    }
+
+    /**
+     * 从Redis中读取数据并写入本地缓存
+     * @return 不存在时返回null，空值返回NULL_VALUE
+     */
+    private <R> Object getFromRedis(String key, Class<R> type){
+        return cacheValue(key, cacheRedisTemplate.opsForValue().get(key), type);
+    }
+
+    /**
+     * 解码Redis中的数据并写入本地缓存
+     * @return 不存在或格式不兼容时返回null，空值返回NULL_VALUE
+     */
+    private <R> Object cacheValue(String key, byte[] bytes, Class<R> type){
+        if(bytes == null){
             return null;
         }
+        Object value = bytes.length == 0 ? NULL_VALUE : codecFor(bytes).decode(bytes, type);
+        if(value != null){
+            putLocal(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * 编码缓存数据：开启二进制编码且数据类型支持时使用二进制编码，否则使用JSON
+     */
+    private byte[] encode(Object value){
+        Object data = value instanceof RedisData ? ((RedisData) value).getData() : value;
+        boolean binary = BINARY_CODEC_NAME.equals(codecName) && data != null && BINARY_CODEC.supports(data.getClass());
+        return (binary ? BINARY_CODEC : JSON_CODEC).encode(value);
+    }
+
+    /**
+     * 根据数据格式选择解码器，两种格式都可以读取
+     */
+    private CacheCodec codecFor(byte[] bytes){
+        return BINARY_CODEC.canDecode(bytes) ? BINARY_CODEC : JSON_CODEC;
+    }
 
-        //5.查询数据库
-        R r = dbFallback.apply(id);
-        //6.判断数据库中是否存在该数据
-        if(r == null){
-            //7.不存在，则将空值写入redis，并返回错误信息
-            stringRedisTemplate.opsForValue().set(key,"",RedisConstants.CACHE_NULL_TTL,TimeUnit.MINUTES);
-            return  null;
+    /**
+     * 等待其它节点写入key的失效通知，最多等待FILL_WAIT_MILLIS毫秒
+     */
+    private void awaitFill(String key){
+        CompletableFuture<Void> signal = fillSignals.computeIfAbsent(key, k -> new CompletableFuture<>());
+        try {
+            signal.get(FILL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            //超时后重新读取Redis并尝试获取锁
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            fillSignals.remove(key, signal);
         }
-        //8.将数据写入到Redis中
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(r),time,unit );
-        return r;
     }
 
+    /**
+     * 批量查询，缓存穿透处理与queryWithPassThrough一致
+     * 本地缓存未命中的key通过一次MGET查询Redis，Redis未命中的id通过一次批量查询数据库，回写Redis使用pipeline
+     * @param keyPrefix key前缀
+     * @param ids id列表
+     * @param type 数据类型
+     * @param dbFallback 根据id批量查询数据库，返回id到数据的映射，不存在的id不包含在映射中
+     * @return 与ids顺序一致的数据列表，不存在的数据为null
+     */
+    public <R,ID> List<R> queryBatchWithPassThrough(
+            String keyPrefix, List<ID> ids, Class<R> type, Function<List<ID>,Map<ID,R>> dbFallback,Long time,TimeUnit unit){
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        CacheMeters meters = meters(keyPrefix);
+        //1.查询本地缓存，并用布隆过滤器过滤掉一定不存在的id
+        List<ID> redisIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            Object local = getLocal(keyPrefix + id);
+            if(local == NULL_VALUE){
+                meters.localNullHits.increment();
+                continue;
+            }
+            if(type.isInstance(local)){
+                meters.localHits.increment();
+                found.put(id, type.cast(local));
+            }else if(bloomFilterManager.mightContain(keyPrefix, id)){
+                redisIds.add(id);
+            }else {
+                meters.rejected.increment();
+            }
+        }
+        //2.一次MGET查询Redis
+        List<ID> dbIds = new ArrayList<>();
+        if(!redisIds.isEmpty()){
+            List<String> keys = new ArrayList<>(redisIds.size());
+            for (ID id : redisIds) {
+                keys.add(keyPrefix + id);
+            }
+            List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < redisIds.size(); i++) {
+                ID id = redisIds.get(i);
+                Object cached = cacheValue(keys.get(i), values == null ? null : values.get(i), type);
+                if(cached == null){
+                    meters.misses.increment();
+                    dbIds.add(id);
+                }else if(cached == NULL_VALUE){
+                    meters.redisNullHits.increment();
+                }else {
+                    meters.redisHits.increment();
+                    found.put(id, type.cast(cached));
+                }
+            }
+        }
+        //3.一次批量查询数据库，pipeline回写Redis，不存在的id写入空值
+        if(!dbIds.isEmpty()){
+            Map<ID, R> loaded = timeLoad(keyPrefix, () -> dbFallback.apply(dbIds));
+            long nullTtl = TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_NULL_TTL);
+            long ttl = unit.toSeconds(time);
+            cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : dbIds) {
+                    R r = loaded.get(id);
+                    byte[] key = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                    if(r == null){
+                        connection.setEx(key, nullTtl, EMPTY);
+                    }else {
+                        connection.setEx(key, ttl, encode(r));
+                    }
+                }
+                return null;
+            });
+            for (ID id : dbIds) {
+                R r = loaded.get(id);
+                putLocal(keyPrefix + id, r == null ? NULL_VALUE : r);
+                if(r != null){
+                    found.put(id, r);
+                }
+            }
+        }
+        //4.按输入顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            result.add(found.get(id));
+        }
+        return result;
+    }
 
     public <R,ID> R queryWithLogicalExpire(
             String keyPrefix,ID id,Class<R> type,Function<ID,R> dbFallback,Long time,TimeUnit unit){
        String key=keyPrefix+id;
-        //1.从Redis中查询数据
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //2.判断是否为空
-        if(StrUtil.isBlank(json)){
-            //3.如果为空则直接返回错误信息
-            return null;
+        //0.查询本地缓存，本地缓存中保存的是data已转换为目标类型的RedisData
+        RedisData redisData;
+        CacheMeters meters = meters(keyPrefix);
+        Object local = getLocal(key);
+        if(local instanceof RedisData && type.isInstance(((RedisData) local).getData())){
+            meters.localHits.increment();
+            redisData = (RedisData) local;
+        }else {
+            //0.1布隆过滤器判断id一定不存在，直接返回
+            if(!bloomFilterManager.mightContain(keyPrefix, id)){
+                meters.rejected.increment();
+                return null;
+            }
+            //1.从Redis中查询数据
+            byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+            //2.判断是否为空
+            if(bytes == null || bytes.length == 0){
+                //3.如果为空则直接返回错误信息
+                meters.misses.increment();
+                return null;
+            }
+            //4.解码，data直接转换为目标类型
+            redisData = codecFor(bytes).decodeLogical(bytes, type);
+            if(redisData == null){
+                meters.misses.increment();
+                return null;
+            }
+            meters.redisHits.increment();
+            putLocal(key, redisData);
+        }
+        R r = type.cast(redisData.getData());
+        //5.判断是否逻辑过期，未过期时按概率提前刷新
+        if(!shouldRefresh(redisData)){
+            return r;
         }
-        //4.将json数据转为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        JSONObject data = (JSONObject) redisData.getData();
-        R r = JSONUtil.toBean(data, type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        //5.判断是否逻辑过期
-        if(expireTime.isAfter(LocalDateTime.now())){
+        //6.重建缓存，本节点已有该key的重建任务时直接返回旧数据
+        if(rebuildScheduler.isPending(key)){
             return r;
         }
-        //6.重建缓存
         //6.1获取锁
         String lockKey=RedisConstants.LOCK_SHOP_KEY+id;
         boolean flag = tryLock(lockKey);
         //6.2判断获取锁是否成功
-        if(flag){
-         //7.获取成功，开启独立线程，缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(()->{
-                try {
-                    //7.1 查询数据库
-                    R r1 = dbFallback.apply(id);
-                    //7.2 写入redis
-                    setWithLogic(key,r1,time,unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    //7.3释放锁
-                    unlock(lockKey);
-                }
-            });
+        if(!flag){
+            meters.lockContended.increment();
+            return r;
+        }
+        //7.获取成功，提交重建任务
+        boolean submitted = rebuildScheduler.submit(key, ()->{
+            try {
+                //7.1 查询数据库，并记录耗时
+                long begin = System.currentTimeMillis();
+                R r1 = timeLoad(keyPrefix, () -> dbFallback.apply(id));
+                //7.2 写入redis
+                setWithLogic(key,r1,time,unit,System.currentTimeMillis() - begin);
+            } finally {
+                //7.3释放锁
+                unlock(lockKey);
+            }
+        });
+        if(submitted){
+            meters.rebuildSubmitted.increment();
+        }else {
+            //未提交（队列已满或调度器已关闭），继续返回旧数据，等待下次重建
+            meters.rebuildRejected.increment();
+            unlock(lockKey);
         }
         return r;
     }
 
+    /**
+     * 判断逻辑过期数据是否需要重建（XFetch）：
+     * 已过期则重建；未过期时，若 now - delta * beta * ln(rand) >= expireTime 则提前重建，
+     * 越接近过期时间、重建耗时越长，提前重建的概率越大
+     * @param redisData 逻辑过期数据
+     * @return true代表需要重建
+     */
+    private boolean shouldRefresh(RedisData redisData){
+        long now = System.currentTimeMillis();
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if(now >= expireAt){
+            return true;
+        }
+        Long delta = redisData.getDelta();
+        if(earlyRefreshBeta <= 0 || delta == null || delta <= 0){
+            return false;
+        }
+        double gap = -delta * earlyRefreshBeta * Math.log(ThreadLocalRandom.current().nextDouble());
+        return now + gap >= expireAt;
+    }
 
+    /**
+     * 查询本地缓存，热点key优先查询热点副本，并记录访问用于热点探测
+     */
+    private Object getLocal(String key){
+        hotKeyDetector.record(key);
+        Object value = hotReplica.get(key, false);
+        if(value != null){
+            return value;
+        }
+        value = localCache.get(key);
+        if(value != null && hotKeyDetector.isHot(key)){
+            hotReplica.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * 写入本地缓存，热点key同时写入热点副本，热点副本不受LRU淘汰影响
+     */
+    private void putLocal(String key, Object value){
+        localCache.put(key, value);
+        if(hotKeyDetector.isHot(key)){
+            hotReplica.put(key, value);
+        }
+    }
+
+    private void removeLocal(String key){
+        localCache.remove(key);
+        hotReplica.remove(key);
+    }
+
+    /**
+     * 查询数据库并记录耗时
+     */
+    private <T> T timeLoad(String keyPrefix, Supplier<T> loader){
+        return meters(keyPrefix).load.record(loader);
+    }
+
+    private CacheMeters meters(String keyPrefix){
+        return cacheMeters.computeIfAbsent(keyPrefix, prefix -> new CacheMeters(meterRegistry, prefix));
+    }
+
+    /**
+     * 按key前缀统计的缓存指标，通过 /actuator/metrics 查看
+     */
+    private static class CacheMeters {
+        /**cache.gets：查询次数，result为hit/null/miss/rejected，level为命中的层级*/
+        private final Counter localHits;
+        private final Counter redisHits;
+        private final Counter localNullHits;
+        private final Counter redisNullHits;
+        private final Counter misses;
+        private final Counter rejected;
+        /**cache.load：查询数据库的耗时*/
+        private final Timer load;
+        /**cache.rebuild：逻辑过期重建任务的提交/拒绝次数*/
+        private final Counter rebuildSubmitted;
+        private final Counter rebuildRejected;
+        /**cache.lock.contended：获取重建锁失败的次数*/
+        private final Counter lockContended;
+
+        private CacheMeters(MeterRegistry registry, String prefix) {
+            localHits = gets(registry, prefix, "hit", "local");
+            redisHits = gets(registry, prefix, "hit", "redis");
+            localNullHits = gets(registry, prefix, "null", "local");
+            redisNullHits = gets(registry, prefix, "null", "redis");
+            misses = gets(registry, prefix, "miss", "redis");
+            rejected = gets(registry, prefix, "rejected", "bloom");
+            load = Timer.builder("cache.load").tag("prefix", prefix)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            rebuildSubmitted = registry.counter("cache.rebuild", "prefix", prefix, "result", "submitted");
+            rebuildRejected = registry.counter("cache.rebuild", "prefix", prefix, "result", "rejected");
+            lockContended = registry.counter("cache.lock.contended", "prefix", prefix);
+        }
+
+        private static Counter gets(MeterRegistry registry, String prefix, String result, String level) {
+            return registry.counter("cache.gets", "prefix", prefix, "result", result, "level", level);
+        }
+    }
+
+    /**
+     * 删除本地缓存，并通知其它节点删除
+     * @param key 缓存key
+     */
+    private void invalidate(String key){
+        removeLocal(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, NODE_ID + ":" + key);
+    }
 
     /**
      * 获取锁
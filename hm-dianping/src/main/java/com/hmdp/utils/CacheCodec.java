@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的编解码器
+ */
+public interface CacheCodec {
+
+    /**
+     * 判断是否支持编码该类型
+     * @param type 数据类型
+     * @return true代表支持
+     */
+    boolean supports(Class<?> type);
+
+    /**
+     * 判断数据是否由该编解码器编码
+     * @param bytes Redis中的数据
+     * @return true代表可以解码
+     */
+    boolean canDecode(byte[] bytes);
+
+    /**
+     * 编码，RedisData中的data按其实际类型编码
+     * @param value 数据
+     * @return 编码后的字节
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码
+     * @param bytes 编码后的字节
+     * @param type 数据类型
+     * @return 数据，格式不兼容（如类的字段已变化）时返回null
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 解码逻辑过期数据，data直接转换为dataType
+     * @param bytes 编码后的字节
+     * @param dataType data的类型
+     * @return 逻辑过期数据，格式不兼容时返回null
+     */
+    RedisData decodeLogical(byte[] bytes, Class<?> dataType);
+}
@@ -0,0 +1,181 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存重建调度器，所有缓存重建任务共用一个线程池
+ * 同一key同时只有一个任务（排队或执行中）；排队的任务按key的热度（HotKeyDetector的估算访问次数）优先执行，热度相同时先进先出
+ * 排队任务数达到上限或调度器已关闭时拒绝新任务（不抛出异常），由调用方继续使用旧数据，等待下次访问再触发重建
+ * 任务异常记录日志和指标，不会抛出到线程池；容器关闭时停止接收任务并等待执行中的任务完成
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    /**容器关闭时等待任务完成的最长时间（秒）*/
+    private static final long SHUTDOWN_TIMEOUT = 5L;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**重建线程数*/
+    @Value("${hmdp.cache.rebuild.threads:10}")
+    private int threads;
+    /**排队任务数上限*/
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+    /**排队或执行中的任务，用于按key去重*/
+    private final Map<String, RebuildTask> pending = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private Counter submitted;
+    private Counter deduplicated;
+    private Counter rejected;
+    private Counter succeeded;
+    private Counter failed;
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new BoundedPriorityBlockingQueue(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                //队列已满或线程池已关闭：清除去重记录并计入拒绝，不向调用方抛出异常
+                (r, e) -> {
+                    RebuildTask rebuildTask = (RebuildTask) r;
+                    rebuildTask.rejected = true;
+                    pending.remove(rebuildTask.key, rebuildTask);
+                    rejected.increment();
+                });
+        new ExecutorServiceMetrics(executor, "cache.rebuild", Collections.emptyList()).bindTo(meterRegistry);
+        submitted = outcome("submitted");
+        deduplicated = outcome("deduplicated");
+        rejected = outcome("rejected");
+        succeeded = outcome("success");
+        failed = outcome("failure");
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 缓存key
+     * @param task 重建逻辑
+     * @return false代表未提交：同一key已有任务，或排队任务数已达上限，或调度器已关闭
+     */
+    public boolean submit(String key, Runnable task) {
+        RebuildTask rebuildTask = new RebuildTask(key, hotKeyDetector.estimate(key), sequence.incrementAndGet(), task);
+        if (pending.putIfAbsent(key, rebuildTask) != null) {
+            deduplicated.increment();
+            return false;
+        }
+        executor.execute(rebuildTask);
+        if (rebuildTask.rejected) {
+            return false;
+        }
+        submitted.increment();
+        return true;
+    }
+
+    /**
+     * 判断key是否已有排队或执行中的重建任务
+     */
+    public boolean isPending(String key) {
+        return pending.containsKey(key);
+    }
+
+    @PreDestroy
+    private void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+            log.warn("缓存重建任务未在{}秒内完成，剩余{}个排队任务被丢弃", SHUTDOWN_TIMEOUT, executor.shutdownNow().size());
+        }
+    }
+
+    private Counter outcome(String result) {
+        return meterRegistry.counter("cache.rebuild.tasks", "result", result);
+    }
+
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String key;
+        private final long hotness;
+        private final long seq;
+        private final Runnable task;
+        /**被线程池拒绝，由拒绝策略在提交线程中设置*/
+        private boolean rejected;
+
+        private RebuildTask(String key, long hotness, long seq, Runnable task) {
+            this.key = key;
+            this.hotness = hotness;
+            this.seq = seq;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+                succeeded.increment();
+            } catch (Exception e) {
+                failed.increment();
+                log.error("缓存重建失败: {}", key, e);
+            } finally {
+                pending.remove(key, this);
+            }
+        }
+
+        @Override
+        public int compareTo(RebuildTask other) {
+            int result = Long.compare(other.hotness, hotness);
+            return result != 0 ? result : Long.compare(seq, other.seq);
+        }
+    }
+
+    /**
+     * 有容量上限的优先级队列：offer在队列已满时返回false，由线程池交给拒绝策略
+     * offer加锁，检查容量和入队是原子的，并发提交也不会超过上限
+     */
+    private static class BoundedPriorityBlockingQueue extends PriorityBlockingQueue<Runnable> {
+        private final int capacity;
+
+        private BoundedPriorityBlockingQueue(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized boolean offer(Runnable runnable) {
+            if (size() >= capacity) {
+                return false;
+            }
+            return super.offer(runnable);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Math.max(capacity - size(), 0);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import com.hmdp.service.IShopGeoService;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 启动时预热缓存：按id范围并行分页读取tb_shop，通过pipeline写入商铺缓存和 shop:geo:{typeId}，并写入商铺类型列表
+ * 预热在ApplicationRunner中同步完成，Spring Boot在所有Runner执行完之后才将readiness置为ACCEPTING_TRAFFIC，
+ * 因此预热完成前 /actuator/health/readiness 不会就绪
+ * 集群中只有一个节点执行预热：标记 cache:warmup:{Redis run_id} 为running时其它节点等待，直到标记变为done才就绪；
+ * 执行预热的节点失败或宕机后标记被删除或过期，等待中的节点接手预热
+ * 定期检查Redis的run_id，主节点故障切换或重启后run_id变化，对应新的标记，由一个节点重新预热；
+ * 此时节点已在提供服务，重新预热期间不会修改readiness
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+
+    private static final String RUNNING = "running";
+    private static final String DONE = "done";
+    /**等待其它节点完成预热时的检查间隔（毫秒）*/
+    private static final long WAIT_INTERVAL = 500L;
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private IShopGeoService shopGeoService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**是否开启预热*/
+    @Value("${hmdp.warm-up.enabled:true}")
+    private boolean enabled;
+    /**并行度，商铺按id范围拆分给多个线程*/
+    @Value("${hmdp.warm-up.parallelism:4}")
+    private int parallelism;
+    /**每页读取的商铺数量*/
+    @Value("${hmdp.warm-up.page-size:500}")
+    private int pageSize;
+    /**启动时等待其它节点完成预热的最长时间（毫秒），超时后不再等待直接就绪*/
+    @Value("${hmdp.warm-up.wait-timeout:600000}")
+    private long waitTimeout;
+
+    /**已预热的商铺数量*/
+    private final AtomicLong loaded = new AtomicLong();
+    /**上次检查到的Redis run_id*/
+    private volatile String redisRunId;
+    /**故障切换后的重新预热在单独的线程中执行，不占用默认的调度线程*/
+    private final ExecutorService rewarmExecutor = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        meterRegistry.gauge("cache.warmup.loaded", loaded);
+        redisRunId = redisRunId();
+        long deadline = System.currentTimeMillis() + waitTimeout;
+        //其它节点正在预热时等待，直到标记显示预热完成；标记消失（预热失败或节点宕机）时由本节点接手
+        while (!tryWarmUp(redisRunId)) {
+            if (DONE.equals(stringRedisTemplate.opsForValue().get(markerKey(redisRunId)))) {
+                log.info("其它节点已完成缓存预热");
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                log.warn("等待其它节点完成缓存预热超时（{}ms），不再等待", waitTimeout);
+                return;
+            }
+            Thread.sleep(WAIT_INTERVAL);
+        }
+    }
+
+    /**
+     * 检查Redis是否发生故障切换或重启（run_id变化），是则提交重新预热后立即返回
+     * 默认的调度线程只有一个，预热耗时较长，在rewarmExecutor中执行，避免阻塞其它定时任务；其它节点已在预热时不等待
+     */
+    @Scheduled(fixedDelayString = "${hmdp.warm-up.failover-check-interval:10000}")
+    public void checkFailover() {
+        String previous = redisRunId;
+        if (!enabled || previous == null) {
+            return;
+        }
+        try {
+            String current = redisRunId();
+            if (previous.equals(current)) {
+                return;
+            }
+            redisRunId = current;
+            log.warn("Redis run_id由{}变为{}，可能发生了故障切换，重新预热缓存", previous, current);
+            rewarmExecutor.execute(() -> {
+                try {
+                    if (!tryWarmUp(current)) {
+                        log.info("其它节点已完成或正在进行缓存预热，跳过");
+                    }
+                } catch (Exception e) {
+                    log.error("故障切换后重新预热缓存失败", e);
+                }
+            });
+        } catch (Exception e) {
+            log.error("检查Redis故障切换失败", e);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        rewarmExecutor.shutdownNow();
+    }
+
+    /**
+     * 抢到预热标记则执行预热，完成后标记为done，失败时删除标记以便其它节点重试
+     * @return false代表其它节点已完成或正在进行预热
+     */
+    private boolean tryWarmUp(String runId) {
+        String markerKey = markerKey(runId);
+        Boolean first = stringRedisTemplate.opsForValue().setIfAbsent(markerKey,
+                RUNNING, RedisConstants.CACHE_WARM_UP_TTL, TimeUnit.MINUTES);
+        if (!Boolean.TRUE.equals(first)) {
+            return false;
+        }
+        if (warmUp()) {
+            stringRedisTemplate.opsForValue().set(markerKey, DONE, RedisConstants.CACHE_WARM_UP_TTL, TimeUnit.MINUTES);
+        } else {
+            stringRedisTemplate.delete(markerKey);
+        }
+        return true;
+    }
+
+    /**
+     * 预热商铺缓存、商铺GEO和商铺类型
+     * @return 是否成功
+     */
+    private boolean warmUp() {
+        loaded.set(0);
+        long begin = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(this::warmUpShopTypes));
+            Map<String, Object> range = shopMapper.selectMaps(new QueryWrapper<Shop>()
+                    .select("MIN(id) AS minId", "MAX(id) AS maxId")).get(0);
+            if (range != null && range.get("minId") != null) {
+                long minId = ((Number) range.get("minId")).longValue();
+                long maxId = ((Number) range.get("maxId")).longValue();
+                long step = (maxId - minId) / parallelism + 1;
+                for (long from = minId; from <= maxId; from += step) {
+                    long start = from;
+                    long end = Math.min(from + step - 1, maxId);
+                    futures.add(executor.submit(() -> warmUpShops(start, end)));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            log.info("缓存预热完成，商铺{}个，耗时{}ms", loaded.get(), System.currentTimeMillis() - begin);
+            return true;
+        } catch (Exception e) {
+            //预热失败不影响启动
+            log.error("缓存预热失败，已预热商铺{}个", loaded.get(), e);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 按id分页预热[start, end]范围内的商铺
+     */
+    private void warmUpShops(long start, long end) {
+        long lastId = start - 1;
+        while (lastId < end) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .gt("id", lastId)
+                    .le("id", end)
+                    .orderByAsc("id")
+                    .last("limit " + pageSize));
+            if (shops.isEmpty()) {
+                return;
+            }
+            //1.商铺缓存
+            Map<String, Shop> values = new HashMap<>(shops.size() * 2);
+            for (Shop shop : shops) {
+                values.put(RedisConstants.CACHE_SHOP_KEY + shop.getId(), shop);
+            }
+            cacheClient.setBatch(values, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            //2.按类型GEOADD
+            shopGeoService.geoAdd(shops);
+            lastId = shops.get(shops.size() - 1).getId();
+            log.debug("缓存预热进度：商铺{}个，id范围[{}, {}]当前id {}", loaded.addAndGet(shops.size()), start, end, lastId);
+            if (shops.size() < pageSize) {
+                return;
+            }
+        }
+    }
+
+    private String redisRunId() {
+        Properties info = stringRedisTemplate.execute(
+                (RedisCallback<Properties>) connection -> connection.serverCommands().info("server"));
+        return info == null ? "" : info.getProperty("run_id", "");
+    }
+
+    private static String markerKey(String runId) {
+        return RedisConstants.CACHE_WARM_UP_KEY + ":" + runId;
+    }
+
+    private void warmUpShopTypes() {
+        List<ShopType> typeList = shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
+        if (!typeList.isEmpty()) {
+            stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(typeList),
+                    RedisConstants.CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+        }
+    }
+}
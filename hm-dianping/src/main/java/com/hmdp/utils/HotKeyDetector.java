@@ -0,0 +1,186 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * 热点key探测：按采样率记录缓存key的访问，用Count-Min Sketch估算访问次数，
+ * 估算值超过阈值的key进入热点列表(Top-K)；每个窗口结束时计数减半（衰减），
+ * 热点key的估算值低于阈值的一半时移出热点列表，并通知监听者
+ * 每个节点独立统计，只反映本节点的访问情况
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    /**Count-Min Sketch的行数*/
+    private static final int DEPTH = 4;
+    /**Count-Min Sketch的列数，必须是2的幂*/
+    private static final int WIDTH = 1 << 14;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**采样率，每sampleRate次访问记录一次*/
+    @Value("${hmdp.cache.hot-key.sample-rate:10}")
+    private int sampleRate;
+    /**热点阈值：一个窗口内（含衰减）估算的访问次数*/
+    @Value("${hmdp.cache.hot-key.threshold:1000}")
+    private long threshold;
+    /**热点列表的最大数量*/
+    @Value("${hmdp.cache.hot-key.capacity:100}")
+    private int capacity;
+
+    private final AtomicIntegerArray sketch = new AtomicIntegerArray(DEPTH * WIDTH);
+    /**热点key及其估算访问次数*/
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> demotionListeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    private void init() {
+        Gauge.builder("cache.hot.keys", hotKeys, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * 记录一次访问（按采样率）
+     * @param key 缓存key
+     */
+    public void record(String key) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        int h1 = spread(key.hashCode());
+        int h2 = spread(h1 * 0x9E3779B9) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * WIDTH + ((h1 + i * h2) & (WIDTH - 1));
+            min = Math.min(min, sketch.incrementAndGet(index));
+        }
+        long estimate = (long) min * Math.max(sampleRate, 1);
+        if (estimate >= threshold) {
+            promote(key, estimate);
+        }
+    }
+
+    /**
+     * 判断key是否为热点key
+     */
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 当前热点key及估算访问次数，按访问次数降序
+     */
+    public Map<String, Long> hotKeys() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(hotKeys.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * 注册热点key降级的监听者
+     */
+    public void addDemotionListener(Consumer<String> listener) {
+        demotionListeners.add(listener);
+    }
+
+    /**
+     * 窗口结束：计数减半，并降级访问量下降的热点key
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.hot-key.window:5000}")
+    public void decay() {
+        for (int i = 0; i < sketch.length(); i++) {
+            if (sketch.get(i) != 0) {
+                sketch.getAndUpdate(i, v -> v >>> 1);
+            }
+        }
+        for (String key : hotKeys.keySet()) {
+            long estimate = estimate(key);
+            if (estimate < threshold / 2) {
+                demote(key);
+            } else {
+                hotKeys.replace(key, estimate);
+            }
+        }
+    }
+
+    /**
+     * 已是热点key时只更新估算值，无需加锁；新增或替换热点key时才加锁
+     */
+    private void promote(String key, long estimate) {
+        if (hotKeys.replace(key, estimate) != null) {
+            return;
+        }
+        insert(key, estimate);
+    }
+
+    private synchronized void insert(String key, long estimate) {
+        if (hotKeys.replace(key, estimate) != null) {
+            return;
+        }
+        if (hotKeys.size() >= capacity) {
+            //热点列表已满，替换访问次数最少的key
+            Map.Entry<String, Long> coldest = hotKeys.entrySet().stream()
+                    .min(Comparator.comparingLong(Map.Entry::getValue))
+                    .orElse(null);
+            if (coldest == null || coldest.getValue() >= estimate) {
+                return;
+            }
+            demote(coldest.getKey());
+        }
+        hotKeys.put(key, estimate);
+        log.info("热点key: {}, 估算访问次数: {}", key, estimate);
+    }
+
+    private void demote(String key) {
+        if (hotKeys.remove(key) == null) {
+            return;
+        }
+        log.info("热点key降级: {}", key);
+        for (Consumer<String> listener : demotionListeners) {
+            listener.accept(key);
+        }
+    }
+
+    /**
+     * 估算key在当前窗口内的访问次数
+     */
+    public long estimate(String key) {
+        int h1 = spread(key.hashCode());
+        int h2 = spread(h1 * 0x9E3779B9) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, sketch.get(i * WIDTH + ((h1 + i * h2) & (WIDTH - 1))));
+        }
+        return (long) min * Math.max(sampleRate, 1);
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+}
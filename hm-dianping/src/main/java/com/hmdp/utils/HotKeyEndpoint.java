@@ -0,0 +1,24 @@
+package com.hmdp.utils;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+
+/**
+ * 本节点当前的热点key列表 /actuator/hotkeys
+ */
+@Component
+@Endpoint(id = "hotkeys")
+public class HotKeyEndpoint {
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @ReadOperation
+    public Map<String, Long> hotKeys() {
+        return hotKeyDetector.hotKeys();
+    }
+}
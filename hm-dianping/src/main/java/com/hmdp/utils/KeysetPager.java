@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.CursorResult;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 键集（seek）分页：按主键升序，用上一页最后一条记录的id作为游标（WHERE id > ? ORDER BY id LIMIT n+1）
+ * 不执行COUNT查询，深分页时也只扫描一页数据；多查的一条只用于判断是否还有下一页
+ */
+public class KeysetPager {
+
+    private static final String KEY_COLUMN = "id";
+
+    private KeysetPager() {
+    }
+
+    /**
+     * 查询lastId之后的一页数据
+     * @param query 已设置好过滤条件的查询，不能包含排序和last语句
+     * @param lastId 上一页返回的游标，第一页传null
+     * @param size 每页条数
+     * @param idGetter 读取记录id的方法
+     * @return 当前页数据和下一页的游标，cursor为null代表没有下一页
+     */
+    public static <T> CursorResult seek(QueryChainWrapper<T> query, Long lastId, int size, Function<T, Long> idGetter) {
+        //1.从游标之后按id升序多查一条
+        List<T> records = query
+                .gt(lastId != null, KEY_COLUMN, lastId)
+                .orderByAsc(KEY_COLUMN)
+                .last("LIMIT " + (size + 1))
+                .list();
+        //2.多出来的一条说明还有下一页，截掉后以本页最后一条的id作为游标
+        CursorResult result = new CursorResult();
+        if(records.size() > size){
+            records = records.subList(0, size);
+            result.setCursor(String.valueOf(idGetter.apply(records.get(size - 1))));
+        }
+        result.setList(records);
+        return result;
+    }
+}
@@ -0,0 +1,213 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.dto.OrderStatusDTO;
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步下单的订单状态跟踪：排队中(queued)在秒杀脚本成功后由下单节点写入，已落库(persisted)/失败(failed)由订单消费者写入
+ * 状态保存在Redis的hash中 order:status:<orderId> (s:状态, r:失败原因, u:下单用户)，只有下单用户可以查询，
+ * 终态变化通过Redis发布订阅通知所有节点，用于更新本地缓存和唤醒长轮询请求
+ */
+@Slf4j
+@Component
+public class OrderStatusTracker implements MessageListener {
+
+    private static final String FIELD_STATUS = "s";
+    private static final String FIELD_REASON = "r";
+    private static final String FIELD_USER = "u";
+    private static final String SEPARATOR = "|";
+    private static final int LOCAL_CACHE_CAPACITY = 10000;
+    /**长轮询最长等待时间（毫秒）*/
+    public static final long MAX_POLL_TIMEOUT = 30000L;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**本地缓存的终态订单状态*/
+    private final LRUCache<Long, OrderStatusDTO> finishedStatuses = CacheUtil.newLRUCache(
+            LOCAL_CACHE_CAPACITY, TimeUnit.MINUTES.toMillis(RedisConstants.ORDER_STATUS_TTL));
+    /**本地缓存的排队中订单，Redis中还没有状态时使用*/
+    private final LRUCache<Long, OrderStatusDTO> queuedStatuses = CacheUtil.newLRUCache(
+            LOCAL_CACHE_CAPACITY, TimeUnit.MINUTES.toMillis(RedisConstants.ORDER_STATUS_TTL));
+    /**等待订单进入终态的长轮询请求*/
+    private final Map<Long, List<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.ORDER_STATUS_CHANNEL));
+    }
+
+    /**
+     * 标记订单排队中，状态只在不存在时写入，不会覆盖消费者已经写入的终态
+     * @param orderId 订单id
+     * @param userId 下单用户id
+     */
+    public void markQueued(Long orderId, Long userId) {
+        queuedStatuses.put(orderId, new OrderStatusDTO(orderId, OrderStatusDTO.QUEUED, null, userId));
+        String key = RedisConstants.ORDER_STATUS_KEY + orderId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hSetNX(key, FIELD_STATUS, OrderStatusDTO.QUEUED);
+            conn.hSet(key, FIELD_USER, userId.toString());
+            conn.expire(key, TimeUnit.MINUTES.toSeconds(RedisConstants.ORDER_STATUS_TTL));
+            return null;
+        });
+    }
+
+    /**
+     * 批量标记订单已落库
+     * @param orderUsers 订单id到下单用户id的映射
+     */
+    public void markPersisted(Map<Long, Long> orderUsers) {
+        if (orderUsers.isEmpty()) {
+            return;
+        }
+        long ttl = TimeUnit.MINUTES.toSeconds(RedisConstants.ORDER_STATUS_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            orderUsers.forEach((orderId, userId) -> {
+                String key = RedisConstants.ORDER_STATUS_KEY + orderId;
+                conn.hSet(key, FIELD_STATUS, OrderStatusDTO.PERSISTED);
+                conn.hSet(key, FIELD_USER, userId.toString());
+                conn.expire(key, ttl);
+            });
+            return null;
+        });
+        publish(OrderStatusDTO.PERSISTED, orderUsers, null);
+    }
+
+    /**
+     * 标记订单下单失败
+     * @param orderId 订单id
+     * @param userId 下单用户id
+     * @param reason 失败原因
+     */
+    public void markFailed(Long orderId, Long userId, String reason) {
+        String key = RedisConstants.ORDER_STATUS_KEY + orderId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hSet(key, FIELD_STATUS, OrderStatusDTO.FAILED);
+            conn.hSet(key, FIELD_REASON, reason);
+            conn.hSet(key, FIELD_USER, userId.toString());
+            conn.expire(key, TimeUnit.MINUTES.toSeconds(RedisConstants.ORDER_STATUS_TTL));
+            return null;
+        });
+        publish(OrderStatusDTO.FAILED, Collections.singletonMap(orderId, userId), reason);
+    }
+
+    /**
+     * 查询订单状态，依次查询本地终态缓存、Redis、本地排队中缓存
+     * @param orderId 订单id
+     * @return 订单状态，不存在时返回null
+     */
+    public OrderStatusDTO query(Long orderId) {
+        OrderStatusDTO status = finishedStatuses.get(orderId);
+        if (status != null) {
+            return status;
+        }
+        Map<Object, Object> fields = stringRedisTemplate.opsForHash().entries(RedisConstants.ORDER_STATUS_KEY + orderId);
+        if (fields.isEmpty()) {
+            return queuedStatuses.get(orderId);
+        }
+        String userId = (String) fields.get(FIELD_USER);
+        status = new OrderStatusDTO(orderId, (String) fields.get(FIELD_STATUS), (String) fields.get(FIELD_REASON),
+                userId == null ? null : Long.valueOf(userId));
+        if (status.isFinished()) {
+            finishedStatuses.put(orderId, status);
+            queuedStatuses.remove(orderId);
+        }
+        return status;
+    }
+
+    /**
+     * 长轮询查询订单状态：订单仍在排队时等待其进入终态，超时后返回当前状态
+     * @param orderId 订单id
+     * @param userId 查询者的用户id，不是下单用户时按订单不存在处理
+     * @param timeout 最长等待时间（毫秒），不超过 MAX_POLL_TIMEOUT
+     * @return 异步结果
+     */
+    public DeferredResult<Result> await(Long orderId, Long userId, long timeout) {
+        DeferredResult<Result> deferredResult = new DeferredResult<>(Math.min(timeout, MAX_POLL_TIMEOUT));
+        OrderStatusDTO status = query(orderId);
+        if (status == null || !userId.equals(status.getUserId())) {
+            deferredResult.setResult(Result.fail("订单不存在"));
+            return deferredResult;
+        }
+        if (status.isFinished() || timeout <= 0) {
+            deferredResult.setResult(Result.ok(status));
+            return deferredResult;
+        }
+        //1.登记等待者
+        waiters.computeIfAbsent(orderId, id -> new CopyOnWriteArrayList<>()).add(deferredResult);
+        deferredResult.onTimeout(() -> deferredResult.setResult(Result.ok(query(orderId))));
+        deferredResult.onCompletion(() -> removeWaiter(orderId, deferredResult));
+        //2.登记期间订单可能已进入终态，再查询一次
+        OrderStatusDTO latest = query(orderId);
+        if (latest != null && latest.isFinished()) {
+            deferredResult.setResult(Result.ok(latest));
+        }
+        return deferredResult;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        //消息格式：状态|订单id1:用户id1,订单id2:用户id2,...|失败原因
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            String[] parts = body.split("\\" + SEPARATOR, 3);
+            String reason = parts.length > 2 ? parts[2] : null;
+            for (String order : parts[1].split(",")) {
+                String[] ids = order.split(":");
+                OrderStatusDTO status = new OrderStatusDTO(Long.valueOf(ids[0]), parts[0], reason, Long.valueOf(ids[1]));
+                finishedStatuses.put(status.getOrderId(), status);
+                queuedStatuses.remove(status.getOrderId());
+                List<DeferredResult<Result>> list = waiters.remove(status.getOrderId());
+                if (list != null) {
+                    list.forEach(deferredResult -> deferredResult.setResult(Result.ok(status)));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("无法解析订单状态消息: {}", body, e);
+        }
+    }
+
+    private void publish(String status, Map<Long, Long> orderUsers, String reason) {
+        StringBuilder orders = new StringBuilder();
+        orderUsers.forEach((orderId, userId) ->
+                orders.append(orders.length() == 0 ? "" : ",").append(orderId).append(':').append(userId));
+        String message = status + SEPARATOR + orders
+                + (reason == null ? "" : SEPARATOR + reason);
+        stringRedisTemplate.convertAndSend(RedisConstants.ORDER_STATUS_CHANNEL, message);
+    }
+
+    private void removeWaiter(Long orderId, DeferredResult<Result> deferredResult) {
+        waiters.computeIfPresent(orderId, (id, list) -> {
+            list.remove(deferredResult);
+            return list.isEmpty() ? null : list;
+        });
+    }
+}
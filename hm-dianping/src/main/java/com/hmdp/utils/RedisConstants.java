@@ -13,13 +13,41 @@ public class RedisConstants {
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type";
+    public static final String CACHE_WARM_UP_KEY = "cache:warmup";
+    public static final Long CACHE_WARM_UP_TTL = 10L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String BLOOM_KEY = "bloom:";
+    public static final String BLOOM_CHANNEL = "bloom:filter";
+    public static final String LOCK_BLOOM_KEY = "lock:bloom:";
+    public static final Long LOCK_BLOOM_TTL = 300L;
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final Long ID_WORKER_TTL = 30L;
+
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_VOUCHER_CHANNEL = "seckill:voucher:changed";
+    public static final String ORDER_STATUS_KEY = "order:status:";
+    public static final Long ORDER_STATUS_TTL = 30L;
+    public static final String ORDER_STATUS_CHANNEL = "order:status";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_CHANNEL = "shop:geo:changed";
+    public static final String SHOP_GEO_CURSOR_KEY = "cursor:shop:geo:";
+    public static final Long SHOP_GEO_CURSOR_TTL = 5L;
+    /**SimpleRedisLock的锁名称，锁key为 lock:geo:check*/
+    public static final String LOCK_GEO_CHECK_NAME = "geo:check";
+    public static final Long LOCK_GEO_CHECK_TTL = 30L;
     public static final String USER_SIGN_KEY = "sign:";
 }
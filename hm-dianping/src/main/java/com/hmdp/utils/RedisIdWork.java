@@ -1,12 +1,30 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+@Slf4j
 @Component
 public class RedisIdWork {
     /**
@@ -14,26 +32,306 @@ public class RedisIdWork {
      */
     private static final long BEGIN_TIMESTAMP=1640995200L;
     private static final long COUNT_BITS=32;
+    private static final long SECONDS_PER_DAY=86400L;
+    private static final DateTimeFormatter DATE_FORMATTER=DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    /**
+     * 每次INCR生成一个序列号
+     */
+    public static final String MODE_INCR="incr";
+    /**
+     * 每次INCRBY租用一个号段，在本地发放
+     */
+    public static final String MODE_SEGMENT="segment";
+    /**
+     * 雪花算法：时间戳+租用的workerId+序列号，本地生成
+     */
+    public static final String MODE_SNOWFLAKE="snowflake";
+
+    /**
+     * 雪花id：1位符号位 | 1位模式标记（恒为1）| 40位毫秒时间戳 | 10位workerId | 12位序列号
+     * incr/segment模式的id为 秒<<32|序列号，在2056年之前都小于2^62；
+     * 雪花id固定置位第62位，保证切换模式后新id严格大于所有已发放的id，不会与已有订单主键冲突
+     * 40位毫秒时间戳同样可以使用到2056年
+     */
+    private static final long SNOWFLAKE_FLAG=1L<<62;
+    private static final long BEGIN_MILLIS=BEGIN_TIMESTAMP*1000;
+    private static final long WORKER_ID_BITS=10;
+    private static final long SEQUENCE_BITS=12;
+    private static final long MAX_WORKER_ID=(1L<<WORKER_ID_BITS)-1;
+    private static final long SEQUENCE_MASK=(1L<<SEQUENCE_BITS)-1;
+    private static final long TIMESTAMP_SHIFT=WORKER_ID_BITS+SEQUENCE_BITS;
+    /**
+     * 逻辑时钟领先系统时钟不超过该值时借用序列号继续发放，超过则等待时钟追上
+     */
+    private static final long MAX_BORROW_MILLIS=10;
+    /**
+     * 时钟回拨超过该值时拒绝发放
+     */
+    private static final long MAX_BACKWARD_MILLIS=5000;
+    private static final String NODE_ID=UUID.randomUUID().toString(true);
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    @Value("${hmdp.id.mode:incr}")
+    private String mode;
+    /**号段大小*/
+    @Value("${hmdp.id.segment-size:1000}")
+    private long segmentSize;
+
+    /**每个业务前缀当天的号段缓冲*/
+    private final ConcurrentHashMap<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
+
+    /**号段预取线程*/
+    private final ExecutorService SEGMENT_PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**租用的workerId，-1代表未租用*/
+    private volatile long workerId = -1;
+    /**workerId租约的本地有效期（System.nanoTime），每次续期成功后推后，过期后拒绝发放id*/
+    private volatile long leaseValidUntil;
+    /**雪花算法状态：上次发放的毫秒时间戳 << SEQUENCE_BITS | 序列号*/
+    private final AtomicLong snowflakeState = new AtomicLong();
+    /**workerId租约续期线程*/
+    private ScheduledExecutorService WORKER_HEARTBEAT_EXECUTOR;
+
     public RedisIdWork(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
 
+    @PostConstruct
+    private void init(){
+        if (!MODE_SNOWFLAKE.equals(mode)) {
+            return;
+        }
+        //启动时租用workerId，并定期续期
+        long start = System.nanoTime();
+        workerId = leaseWorkerId();
+        leaseValidUntil = start + TimeUnit.SECONDS.toNanos(RedisConstants.ID_WORKER_TTL);
+        long period = RedisConstants.ID_WORKER_TTL / 3;
+        WORKER_HEARTBEAT_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+        WORKER_HEARTBEAT_EXECUTOR.scheduleAtFixedRate(this::renewWorkerId, period, period, TimeUnit.SECONDS);
+    }
+
     public long nextId(String keyPrefix){
+        if (MODE_SNOWFLAKE.equals(mode)) {
+            return nextSnowflakeId();
+        }
         //1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
         long timestamp=nowSecond-BEGIN_TIMESTAMP;
         //2.生成序列号
-        String date = now.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-        long count  = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count = MODE_SEGMENT.equals(mode)
+                ? nextSegmentCount(keyPrefix, nowSecond / SECONDS_PER_DAY)
+                : stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, now.toLocalDate()));
         //3.拼接并返回
         return timestamp << COUNT_BITS | count;
     }
 
+    @PreDestroy
+    private void destroy(){
+        SEGMENT_PREFETCH_EXECUTOR.shutdownNow();
+        if (WORKER_HEARTBEAT_EXECUTOR != null) {
+            WORKER_HEARTBEAT_EXECUTOR.shutdownNow();
+            //释放workerId租约
+            stringRedisTemplate.execute(UNLOCK_SCRIPT,
+                    Collections.singletonList(RedisConstants.ID_WORKER_KEY + workerId), NODE_ID);
+        }
+    }
+
+    /**
+     * 雪花算法生成id，无网络访问、无对象分配
+     */
+    private long nextSnowflakeId(){
+        //租约过期后其它节点可能已经租用了同一个workerId，继续发放会产生重复id
+        if (System.nanoTime() - leaseValidUntil > 0) {
+            throw new IllegalStateException("workerId租约已过期，拒绝生成id, workerId=" + workerId);
+        }
+        while (true) {
+            long last = snowflakeState.get();
+            long lastMillis = last >>> SEQUENCE_BITS;
+            long nowMillis = System.currentTimeMillis() - BEGIN_MILLIS;
+            long next;
+            if (nowMillis > lastMillis) {
+                //1.新的毫秒，序列号从0开始
+                next = nowMillis << SEQUENCE_BITS;
+            } else {
+                //2.同一毫秒或时钟回拨：沿用上次的时间戳，借用序列号
+                long drift = lastMillis - nowMillis;
+                if (drift > MAX_BACKWARD_MILLIS) {
+                    throw new IllegalStateException("时钟回拨" + drift + "ms，拒绝生成id");
+                }
+                if (drift > MAX_BORROW_MILLIS) {
+                    //2.1逻辑时钟领先太多，等待系统时钟追上
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    continue;
+                }
+                //2.2序列号用尽时借用下一毫秒
+                next = (last & SEQUENCE_MASK) == SEQUENCE_MASK
+                        ? (lastMillis + 1) << SEQUENCE_BITS
+                        : last + 1;
+            }
+            if (snowflakeState.compareAndSet(last, next)) {
+                //3.拼接并返回
+                return SNOWFLAKE_FLAG
+                        | (next >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT
+                        | workerId << SEQUENCE_BITS
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * 租用一个空闲的workerId：SET id:worker:n nodeId NX EX ttl
+     */
+    private long leaseWorkerId(){
+        for (long id = 0; id <= MAX_WORKER_ID; id++) {
+            Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(
+                    RedisConstants.ID_WORKER_KEY + id, NODE_ID, RedisConstants.ID_WORKER_TTL, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                log.info("租用workerId成功, workerId={}", id);
+                return id;
+            }
+        }
+        throw new IllegalStateException("没有空闲的workerId");
+    }
+
+    /**
+     * 续期workerId租约，租约已丢失时重新租用，避免与其它节点的id冲突
+     * 本地有效期以发起续期之前的时间为起点计算，保证不会晚于Redis中租约的实际过期时间
+     */
+    private void renewWorkerId(){
+        try {
+            long start = System.nanoTime();
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(RedisConstants.ID_WORKER_KEY + workerId),
+                    NODE_ID, RedisConstants.ID_WORKER_TTL.toString());
+            if (renewed == null || renewed == 0) {
+                log.warn("workerId租约已丢失, workerId={}", workerId);
+                workerId = leaseWorkerId();
+            }
+            leaseValidUntil = start + TimeUnit.SECONDS.toNanos(RedisConstants.ID_WORKER_TTL);
+        } catch (Exception e) {
+            log.error("workerId续期失败, workerId={}", workerId, e);
+        }
+    }
+
+    private static String counterKey(String keyPrefix, LocalDate date){
+        return "icr:" + keyPrefix + ":" + date.format(DATE_FORMATTER);
+    }
+
+    /**
+     * 从号段中获取序列号，日期变化时切换到新一天的计数key
+     */
+    private long nextSegmentCount(String keyPrefix, long epochDay){
+        SegmentBuffer buffer = segmentBuffers.get(keyPrefix);
+        if (buffer == null || buffer.epochDay != epochDay) {
+            buffer = segmentBuffers.compute(keyPrefix, (k, old) -> old != null && old.epochDay == epochDay
+                    ? old
+                    : new SegmentBuffer(counterKey(keyPrefix, LocalDate.ofEpochDay(epochDay)), epochDay));
+        }
+        return buffer.next();
+    }
 
+    /**
+     * 一个已租用的号段 [cursor, end]
+     */
+    private static class Segment {
+        private final AtomicLong cursor;
+        private final long end;
+        /**发放到该序列号时开始预取下一号段*/
+        private final long prefetchAt;
+
+        Segment(long start, long end) {
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = start + (end - start + 1) * 8 / 10;
+        }
+    }
+
+    /**
+     * 双号段缓冲：当前号段用掉80%时在后台租用下一个号段
+     */
+    private class SegmentBuffer {
+        private final String key;
+        private final long epochDay;
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+
+        SegmentBuffer(String key, long epochDay) {
+            this.key = key;
+            this.epochDay = epochDay;
+        }
+
+        long next() {
+            while (true) {
+                Segment segment = current;
+                if (segment != null) {
+                    long value = segment.cursor.getAndIncrement();
+                    if (value <= segment.end) {
+                        if (value == segment.prefetchAt) {
+                            prefetch();
+                        }
+                        return value;
+                    }
+                }
+                switchSegment(segment);
+            }
+        }
+
+        /**
+         * 当前号段用尽，切换到预取的号段；预取未完成时同步租用
+         */
+        private synchronized void switchSegment(Segment exhausted) {
+            if (current != exhausted) {
+                //其它线程已经完成切换
+                return;
+            }
+            Segment segment = next;
+            next = null;
+            current = segment != null ? segment : lease();
+        }
+
+        private void prefetch() {
+            if (next != null || !prefetching.compareAndSet(false, true)) {
+                return;
+            }
+            SEGMENT_PREFETCH_EXECUTOR.execute(() -> {
+                try {
+                    Segment segment = lease();
+                    synchronized (this) {
+                        if (next == null) {
+                            next = segment;
+                        }
+                    }
+                } catch (Exception e) {
+                    log.error("预取号段失败, key={}", key, e);
+                } finally {
+                    prefetching.set(false);
+                }
+            });
+        }
+
+        /**
+         * INCRBY key segmentSize 租用号段
+         */
+        private Segment lease() {
+            long end = stringRedisTemplate.opsForValue().increment(key, segmentSize);
+            return new Segment(end - segmentSize + 1, end);
+        }
+    }
 
 }
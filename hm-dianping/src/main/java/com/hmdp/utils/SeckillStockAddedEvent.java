@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 秒杀券补充库存事件，事务提交后增加Redis中的库存并清除售罄标记
+ */
+@Getter
+public class SeckillStockAddedEvent extends ApplicationEvent {
+
+    /**优惠券id*/
+    private final Long voucherId;
+    /**补充的库存数量*/
+    private final int count;
+
+    public SeckillStockAddedEvent(Object source, Long voucherId, int count) {
+        super(source);
+        this.voucherId = voucherId;
+        this.count = count;
+    }
+}
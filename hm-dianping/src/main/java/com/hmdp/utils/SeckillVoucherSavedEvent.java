@@ -0,0 +1,20 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 秒杀券新增事件，事务提交后预热秒杀券信息和库存
+ */
+@Getter
+public class SeckillVoucherSavedEvent extends ApplicationEvent {
+
+    /**保存的秒杀券*/
+    private final SeckillVoucher seckillVoucher;
+
+    public SeckillVoucherSavedEvent(Object source, SeckillVoucher seckillVoucher) {
+        super(source);
+        this.seckillVoucher = seckillVoucher;
+    }
+}
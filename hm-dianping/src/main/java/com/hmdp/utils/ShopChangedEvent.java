@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 商铺新增/修改/删除事件，新增时before为null，删除时after为null
+ */
+@Getter
+public class ShopChangedEvent extends ApplicationEvent {
+
+    /**修改前的商铺*/
+    private final Shop before;
+    /**修改后的商铺*/
+    private final Shop after;
+
+    public ShopChangedEvent(Object source, Shop before, Shop after) {
+        super(source);
+        this.before = before;
+        this.after = after;
+    }
+}
@@ -0,0 +1,460 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地商铺地理索引：每个商铺类型一个网格索引，用于附近商铺查询，无需访问Redis
+ * 网格大小为CELL_DEGREES度，商铺按(纬度格, 经度格)编码的long排序后保存在基本类型数组中，
+ * 查询时对半径覆盖的每一行网格做二分查找，再计算距离、取最近的K个
+ * 索引不可变，修改时复制整个类型的数组（写时复制），读无锁
+ * 启动后异步从tb_shop加载，通过ShopChangedEvent保持最新；加载完成前search返回null，由调用方改为查询Redis
+ * 商铺修改通过Redis发布订阅同步到其它节点的索引，消息格式：节点id|商铺id|修改前类型|修改后类型|x|y
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements MessageListener {
+
+    /**网格大小（度），约1.1公里*/
+    private static final double CELL_DEGREES = 0.01;
+    /**与Redis GEO一致的地球半径（米）*/
+    private static final double EARTH_RADIUS = 6372797.560856;
+    /**每度纬度对应的距离（米）*/
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS;
+    private static final int LOAD_PAGE_SIZE = 1000;
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+    private static final String SEPARATOR = "|";
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**是否开启本地地理索引*/
+    @Value("${hmdp.geo.local-index:false}")
+    private volatile boolean enabled;
+
+    private final Map<Long, TypeIndex> indexes = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    /**加载完成前收到的修改事件*/
+    private final List<ShopChangedEvent> changedWhileLoading = new ArrayList<>();
+
+    /**
+     * 查询结果：按距离升序的商铺id和距离（米）
+     */
+    public static class Nearby {
+        public final long[] ids;
+        public final double[] distances;
+
+        private Nearby(long[] ids, double[] distances) {
+            this.ids = ids;
+            this.distances = distances;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SHOP_GEO_CHANNEL));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        Thread loader = new Thread(() -> {
+            try {
+                long begin = System.currentTimeMillis();
+                Map<Long, List<Shop>> shopsByType = new HashMap<>();
+                long lastId = 0;
+                int count = 0;
+                while (true) {
+                    List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                            .select("id", "type_id", "x", "y")
+                            .gt("id", lastId)
+                            .orderByAsc("id")
+                            .last("limit " + LOAD_PAGE_SIZE));
+                    for (Shop shop : shops) {
+                        if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                            shopsByType.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>()).add(shop);
+                        }
+                        lastId = shop.getId();
+                    }
+                    count += shops.size();
+                    if (shops.size() < LOAD_PAGE_SIZE) {
+                        break;
+                    }
+                }
+                synchronized (this) {
+                    for (Map.Entry<Long, List<Shop>> entry : shopsByType.entrySet()) {
+                        indexes.put(entry.getKey(), TypeIndex.of(entry.getValue()));
+                    }
+                    //加载期间的修改可能未被读到，重新应用一次
+                    for (ShopChangedEvent event : changedWhileLoading) {
+                        apply(event);
+                    }
+                    changedWhileLoading.clear();
+                    ready = true;
+                }
+                log.info("本地商铺地理索引加载完成，商铺{}个，耗时{}ms", count, System.currentTimeMillis() - begin);
+            } catch (Exception e) {
+                log.error("本地商铺地理索引加载失败，附近商铺查询继续使用Redis", e);
+                synchronized (this) {
+                    enabled = false;
+                    changedWhileLoading.clear();
+                }
+            }
+        }, "shop-geo-index-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 商铺新增/修改后更新本节点索引，并通知其它节点（事务提交后执行）
+     * 未开启本地索引的节点同样需要通知，其它节点可能开启了
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChanged(ShopChangedEvent event) {
+        handle(event);
+        publish(event);
+    }
+
+    /**
+     * 其它节点的商铺修改
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (!enabled) {
+            return;
+        }
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String[] parts = body.split("\\" + SEPARATOR, -1);
+        if (parts.length != 6 || NODE_ID.equals(parts[0])) {
+            return;
+        }
+        try {
+            long id = Long.parseLong(parts[1]);
+            Shop before = null;
+            if (!parts[2].isEmpty()) {
+                before = new Shop().setId(id).setTypeId(Long.valueOf(parts[2]));
+            }
+            Shop after = null;
+            if (!parts[3].isEmpty()) {
+                after = new Shop().setId(id).setTypeId(Long.valueOf(parts[3]))
+                        .setX(Double.valueOf(parts[4])).setY(Double.valueOf(parts[5]));
+            }
+            handle(new ShopChangedEvent(this, before, after));
+        } catch (RuntimeException e) {
+            log.error("无法解析商铺地理索引消息: {}", body, e);
+        }
+    }
+
+    private synchronized void handle(ShopChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        if (!ready) {
+            changedWhileLoading.add(event);
+            return;
+        }
+        apply(event);
+    }
+
+    private void publish(ShopChangedEvent event) {
+        Shop before = event.getBefore();
+        Shop after = event.getAfter();
+        Shop shop = after != null ? after : before;
+        if (shop == null || shop.getId() == null) {
+            return;
+        }
+        //修改后缺少类型或坐标时只从原类型中删除
+        boolean located = after != null && after.getTypeId() != null && after.getX() != null && after.getY() != null;
+        String message = NODE_ID
+                + SEPARATOR + shop.getId()
+                + SEPARATOR + (before != null && before.getTypeId() != null ? before.getTypeId() : "")
+                + SEPARATOR + (located ? after.getTypeId() : "")
+                + SEPARATOR + (located ? after.getX() : "")
+                + SEPARATOR + (located ? after.getY() : "");
+        try {
+            stringRedisTemplate.convertAndSend(RedisConstants.SHOP_GEO_CHANNEL, message);
+        } catch (RuntimeException e) {
+            log.error("发布商铺地理索引消息失败: {}", message, e);
+        }
+    }
+
+    private void apply(ShopChangedEvent event) {
+        Shop before = event.getBefore();
+        Shop after = event.getAfter();
+        if (before != null && before.getTypeId() != null) {
+            TypeIndex index = indexes.get(before.getTypeId());
+            if (index != null) {
+                indexes.put(before.getTypeId(), index.remove(before.getId()));
+            }
+        }
+        if (after != null && after.getTypeId() != null && after.getX() != null && after.getY() != null) {
+            TypeIndex index = indexes.getOrDefault(after.getTypeId(), TypeIndex.EMPTY);
+            indexes.put(after.getTypeId(), index.remove(after.getId()).add(after.getId(), after.getX(), after.getY()));
+        }
+    }
+
+    /**
+     * 查询距离(x, y)在radius米以内的商铺，按距离升序取前limit个
+     * @return 索引未加载时返回null
+     */
+    public Nearby search(long typeId, double x, double y, double radius, int limit) {
+        if (!ready) {
+            return null;
+        }
+        TypeIndex index = indexes.get(typeId);
+        if (index == null || limit <= 0) {
+            return new Nearby(new long[0], new double[0]);
+        }
+        return index.search(x, y, radius, limit);
+    }
+
+    private static long cellKey(double x, double y) {
+        return cellKey(row(y), column(x));
+    }
+
+    /**
+     * 同一行的网格编码连续，行内按列升序
+     */
+    private static long cellKey(long row, long column) {
+        return (row << 32) | column;
+    }
+
+    private static long row(double y) {
+        return (long) Math.floor(y / CELL_DEGREES);
+    }
+
+    /**
+     * 列号从经度-180开始计算，保证非负
+     */
+    private static long column(double x) {
+        return (long) Math.floor((x + 180) / CELL_DEGREES);
+    }
+
+    /**
+     * 与Redis GEO相同的haversine距离（米）
+     */
+    private static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    /**
+     * 一个商铺类型的网格索引，按cellKey排序
+     */
+    private static class TypeIndex {
+        private static final TypeIndex EMPTY = new TypeIndex(new long[0], new long[0], new double[0], new double[0]);
+
+        private final long[] cells;
+        private final long[] ids;
+        private final double[] xs;
+        private final double[] ys;
+
+        private TypeIndex(long[] cells, long[] ids, double[] xs, double[] ys) {
+            this.cells = cells;
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+        }
+
+        static TypeIndex of(List<Shop> shops) {
+            int n = shops.size();
+            Shop[] sorted = shops.toArray(new Shop[0]);
+            Arrays.sort(sorted, (a, b) -> Long.compare(cellKey(a.getX(), a.getY()), cellKey(b.getX(), b.getY())));
+            long[] cells = new long[n];
+            long[] ids = new long[n];
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                cells[i] = cellKey(sorted[i].getX(), sorted[i].getY());
+                ids[i] = sorted[i].getId();
+                xs[i] = sorted[i].getX();
+                ys[i] = sorted[i].getY();
+            }
+            return new TypeIndex(cells, ids, xs, ys);
+        }
+
+        TypeIndex add(long id, double x, double y) {
+            long cell = cellKey(x, y);
+            int at = lowerBound(cell + 1);
+            int n = ids.length;
+            long[] newCells = new long[n + 1];
+            long[] newIds = new long[n + 1];
+            double[] newXs = new double[n + 1];
+            double[] newYs = new double[n + 1];
+            System.arraycopy(cells, 0, newCells, 0, at);
+            System.arraycopy(ids, 0, newIds, 0, at);
+            System.arraycopy(xs, 0, newXs, 0, at);
+            System.arraycopy(ys, 0, newYs, 0, at);
+            newCells[at] = cell;
+            newIds[at] = id;
+            newXs[at] = x;
+            newYs[at] = y;
+            System.arraycopy(cells, at, newCells, at + 1, n - at);
+            System.arraycopy(ids, at, newIds, at + 1, n - at);
+            System.arraycopy(xs, at, newXs, at + 1, n - at);
+            System.arraycopy(ys, at, newYs, at + 1, n - at);
+            return new TypeIndex(newCells, newIds, newXs, newYs);
+        }
+
+        TypeIndex remove(long id) {
+            int at = -1;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    at = i;
+                    break;
+                }
+            }
+            if (at < 0) {
+                return this;
+            }
+            int n = ids.length;
+            long[] newCells = new long[n - 1];
+            long[] newIds = new long[n - 1];
+            double[] newXs = new double[n - 1];
+            double[] newYs = new double[n - 1];
+            System.arraycopy(cells, 0, newCells, 0, at);
+            System.arraycopy(ids, 0, newIds, 0, at);
+            System.arraycopy(xs, 0, newXs, 0, at);
+            System.arraycopy(ys, 0, newYs, 0, at);
+            System.arraycopy(cells, at + 1, newCells, at, n - at - 1);
+            System.arraycopy(ids, at + 1, newIds, at, n - at - 1);
+            System.arraycopy(xs, at + 1, newXs, at, n - at - 1);
+            System.arraycopy(ys, at + 1, newYs, at, n - at - 1);
+            return new TypeIndex(newCells, newIds, newXs, newYs);
+        }
+
+        Nearby search(double x, double y, double radius, int limit) {
+            //1.半径覆盖的网格范围
+            double latDelta = radius / METERS_PER_DEGREE;
+            double lonDelta = radius / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(y)), 1e-6));
+            long minRow = row(y - latDelta);
+            long maxRow = row(y + latDelta);
+            long minColumn = Math.max(column(x - lonDelta), 0);
+            long maxColumn = column(x + lonDelta);
+            //2.每一行二分查找，距离在半径内的商铺放入最大堆，堆的大小不超过limit和商铺数量
+            limit = Math.min(limit, ids.length);
+            int[] heap = new int[limit];
+            double[] heapDistances = new double[limit];
+            int size = 0;
+            for (long row = minRow; row <= maxRow; row++) {
+                int from = lowerBound(cellKey(row, minColumn));
+                int to = lowerBound(cellKey(row, maxColumn) + 1);
+                for (int i = from; i < to; i++) {
+                    double d = distance(x, y, xs[i], ys[i]);
+                    if (d > radius) {
+                        continue;
+                    }
+                    if (size < limit) {
+                        heap[size] = i;
+                        heapDistances[size] = d;
+                        siftUp(heap, heapDistances, size++);
+                    } else if (d < heapDistances[0]) {
+                        heap[0] = i;
+                        heapDistances[0] = d;
+                        siftDown(heap, heapDistances, size);
+                    }
+                }
+            }
+            //3.依次取出堆顶（最远），倒序放入结果
+            long[] resultIds = new long[size];
+            double[] resultDistances = new double[size];
+            for (int n = size; n > 0; n--) {
+                resultIds[n - 1] = ids[heap[0]];
+                resultDistances[n - 1] = heapDistances[0];
+                heap[0] = heap[n - 1];
+                heapDistances[0] = heapDistances[n - 1];
+                siftDown(heap, heapDistances, n - 1);
+            }
+            return new Nearby(resultIds, resultDistances);
+        }
+
+        /**
+         * 第一个cellKey不小于key的位置
+         */
+        private int lowerBound(long key) {
+            int low = 0;
+            int high = cells.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cells[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private static void siftUp(int[] heap, double[] distances, int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distances[i]) {
+                    return;
+                }
+                swap(heap, distances, i, parent);
+                i = parent;
+            }
+        }
+
+        private static void siftDown(int[] heap, double[] distances, int size) {
+            int i = 0;
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && distances[left] > distances[largest]) {
+                    largest = left;
+                }
+                if (right < size && distances[right] > distances[largest]) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(heap, distances, i, largest);
+                i = largest;
+            }
+        }
+
+        private static void swap(int[] heap, double[] distances, int i, int j) {
+            int index = heap[i];
+            heap[i] = heap[j];
+            heap[j] = index;
+            double distance = distances[i];
+            distances[i] = distances[j];
+            distances[j] = distance;
+        }
+    }
+}
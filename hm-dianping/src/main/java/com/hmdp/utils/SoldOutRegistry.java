@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 本地售罄登记表：记录本节点已知售罄的秒杀券，售罄后的请求无需访问Redis
+ * 售罄/重置事件通过Redis发布订阅同步到其它节点
+ */
+@Slf4j
+@Component
+public class SoldOutRegistry implements MessageListener {
+
+    private static final String SOLD_OUT = "+";
+    private static final String RESET = "-";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 已售罄的优惠券id，有序数组，写时复制，读无锁
+     */
+    private volatile long[] soldOutIds = new long[0];
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 判断优惠券是否已售罄
+     * @param voucherId 优惠券id
+     * @return true代表已售罄
+     */
+    public boolean isSoldOut(long voucherId) {
+        return Arrays.binarySearch(soldOutIds, voucherId) >= 0;
+    }
+
+    /**
+     * 标记优惠券已售罄，并通知其它节点
+     * @param voucherId 优惠券id
+     */
+    public void markSoldOut(long voucherId) {
+        if (add(voucherId)) {
+            stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId);
+        }
+    }
+
+    /**
+     * 库存补充后清除售罄标记，并通知其它节点
+     * @param voucherId 优惠券id
+     */
+    public void reset(long voucherId) {
+        remove(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, RESET + voucherId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            long voucherId = Long.parseLong(body.substring(1));
+            if (body.startsWith(SOLD_OUT)) {
+                add(voucherId);
+            } else if (body.startsWith(RESET)) {
+                remove(voucherId);
+            }
+        } catch (RuntimeException e) {
+            log.error("无法解析售罄消息: {}", body, e);
+        }
+    }
+
+    private synchronized boolean add(long voucherId) {
+        long[] ids = soldOutIds;
+        int index = Arrays.binarySearch(ids, voucherId);
+        if (index >= 0) {
+            return false;
+        }
+        int insertAt = -index - 1;
+        long[] newIds = new long[ids.length + 1];
+        System.arraycopy(ids, 0, newIds, 0, insertAt);
+        newIds[insertAt] = voucherId;
+        System.arraycopy(ids, insertAt, newIds, insertAt + 1, ids.length - insertAt);
+        soldOutIds = newIds;
+        return true;
+    }
+
+    private synchronized void remove(long voucherId) {
+        long[] ids = soldOutIds;
+        int index = Arrays.binarySearch(ids, voucherId);
+        if (index < 0) {
+            return;
+        }
+        long[] newIds = new long[ids.length - 1];
+        System.arraycopy(ids, 0, newIds, 0, index);
+        System.arraycopy(ids, index + 1, newIds, index, ids.length - index - 1);
+        soldOutIds = newIds;
+    }
+}
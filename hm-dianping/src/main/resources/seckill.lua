@@ -1,20 +1,50 @@
 -- 1.参数列表
+-- 1.0 key列表，脚本访问的key全部通过KEYS声明
+--   KEYS[1]秒杀券信息 seckill:voucher:{voucherId}
+--   KEYS[2]已下单用户 seckill:order:{voucherId}
+--   KEYS[3]订单消息队列 stream.orders
+--   KEYS[4..n]库存key：未分片时为 seckill:stock:{voucherId}，分片时为 seckill:stock:{voucherId}:0 ~ seckill:stock:{voucherId}:n-1
+-- 秒杀券相关的key使用同一个hash tag {voucherId}，位于同一个slot；
+-- stream.orders是所有秒杀券共用的一个key，只能位于一个slot，因此本脚本要求单机或主从（哨兵）部署的Redis，
+-- Redis Cluster下需要保证 stream.orders 与秒杀券key位于同一个节点，否则脚本会报CROSSSLOT错误
 -- 1.1优惠券id
 local voucherId = ARGV[1]
 -- 1.2用户id
 local userId = ARGV[2]
 -- 1.3订单id
 local orderId = ARGV[3]
+-- 1.4当前时间（毫秒）
+local now = tonumber(ARGV[4])
 
 -- 2.数据key
--- 2.1 库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2 订单key
-local orderKey = 'seckill:stock:' .. voucherId
+-- 2.1 订单key
+local orderKey = KEYS[2]
+-- 2.2 库存分片数
+local shards = #KEYS - 3
+-- 2.3 库存key
+local stockKey
 
 -- 3.脚本业务
--- 3.1.判断库存是否充足
-if(tonumber(redis.call('get',stockKey)) <= 0) then
+-- 3.0.判断秒杀时间，秒杀券信息由预热写入
+local voucher = redis.call('hmget',KEYS[1],'begin','end')
+if(voucher[1] and now < tonumber(voucher[1])) then
+    -- 秒杀尚未开始，返回3
+    return 3
+end
+if(voucher[2] and now > tonumber(voucher[2])) then
+    -- 秒杀已经结束，返回4
+    return 4
+end
+-- 3.1.判断库存是否充足，根据用户id选择起始分片，分片为空时依次尝试其它分片
+local start = tonumber(userId) % shards
+for i = 0, shards - 1 do
+    local shardKey = KEYS[4 + (start + i) % shards]
+    if((tonumber(redis.call('get',shardKey)) or 0) > 0) then
+        stockKey = shardKey
+        break
+    end
+end
+if(stockKey == nil) then
     -- 3.2.库存不足，返回1
     return 1
 end
@@ -24,9 +54,9 @@ if(redis.call('sismember',orderKey,userId) == 1) then
     return 2
 end
 -- 3.4 扣库存
-redis.call('incrby',-1)
+redis.call('incrby',stockKey,-1)
 -- 3.5 下单（保存用户到Redis中的set里）
 redis.call('sadd',orderKey,userId)
 --3.6发送消息到队列中  XADD stream.order * k1 v1 k2 v2 ...
-redis.call('xadd','stream.orders','*','userId',userId,'voucherId',voucherId,'id',orderId)
+redis.call('xadd',KEYS[3],'*','userId',userId,'voucherId',voucherId,'id',orderId)
 return 0
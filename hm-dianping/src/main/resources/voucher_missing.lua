@@ -0,0 +1,7 @@
+--秒杀券信息不存在时才写入不存在标记，避免覆盖并发预热写入的秒杀券信息
+if(redis.call('exists',KEYS[1]) == 0) then
+    --hset key missing 1，并设置有效期
+    redis.call('hset',KEYS[1],ARGV[1],'1')
+    return redis.call('expire',KEYS[1],ARGV[2])
+end
+return 0
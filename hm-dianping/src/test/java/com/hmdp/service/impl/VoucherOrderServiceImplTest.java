@@ -0,0 +1,197 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.baomidou.mybatisplus.extension.toolkit.ChainWrappers;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.OrderStatusTracker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Constructor;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 订单消费者的批量落库、确认和死信处理，Redis、数据库和事务管理器均为mock
+ */
+class VoucherOrderServiceImplTest {
+
+    private static final String QUEUE_NAME = "stream.orders";
+    private static final String GROUP_NAME = "g1";
+    private static final String DEAD_LETTER_QUEUE_NAME = "stream.orders.dlq";
+
+    private VoucherOrderServiceImpl service;
+    private VoucherOrderMapper voucherOrderMapper;
+    private SeckillVoucherMapper seckillVoucherMapper;
+    private PlatformTransactionManager transactionManager;
+    private StringRedisTemplate stringRedisTemplate;
+    private StreamOperations<String, Object, Object> streamOperations;
+    private OrderStatusTracker orderStatusTracker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        service = new VoucherOrderServiceImpl();
+        voucherOrderMapper = mock(VoucherOrderMapper.class);
+        seckillVoucherMapper = mock(SeckillVoucherMapper.class);
+        ISeckillVoucherService seckillVoucherService = mock(ISeckillVoucherService.class);
+        when(seckillVoucherService.update()).thenAnswer(invocation -> ChainWrappers.updateChain(seckillVoucherMapper));
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        streamOperations = mock(StreamOperations.class);
+        when(stringRedisTemplate.opsForStream()).thenReturn(streamOperations);
+        orderStatusTracker = mock(OrderStatusTracker.class);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(service, "baseMapper", voucherOrderMapper);
+        ReflectionTestUtils.setField(service, "seckillVoucherService", seckillVoucherService);
+        ReflectionTestUtils.setField(service, "transactionTemplate", new TransactionTemplate(transactionManager));
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(service, "orderStatusTracker", orderStatusTracker);
+        ReflectionTestUtils.setField(service, "batchSize", 50);
+        ReflectionTestUtils.setField(service, "recoveryMinIdle", 10000L);
+        ReflectionTestUtils.setField(service, "maxDeliveries", 5L);
+        ReflectionTestUtils.setField(service, "claimedCounter", meterRegistry.counter("claimed"));
+        ReflectionTestUtils.setField(service, "deadLetterCounter", meterRegistry.counter("dead.letter"));
+        ReflectionTestUtils.setField(service, "duplicateOrderCounter", meterRegistry.counter("duplicate"));
+        ReflectionTestUtils.setField(service, "redeliveredOrderCounter", meterRegistry.counter("redelivery"));
+    }
+
+    @Test
+    void acknowledgesOnlyAfterCommit() {
+        when(voucherOrderMapper.insertBatch(any())).thenReturn(2);
+        when(seckillVoucherMapper.update(isNull(), any())).thenReturn(1);
+
+        handle(record("1-0", 101L, 1L, 7L), record("1-1", 102L, 2L, 7L));
+
+        InOrder inOrder = inOrder(transactionManager, streamOperations, orderStatusTracker);
+        inOrder.verify(transactionManager).commit(any());
+        inOrder.verify(streamOperations).acknowledge(QUEUE_NAME, GROUP_NAME, RecordId.of("1-0"), RecordId.of("1-1"));
+        Map<Long, Long> persisted = new HashMap<>();
+        persisted.put(101L, 1L);
+        persisted.put(102L, 2L);
+        inOrder.verify(orderStatusTracker).markPersisted(persisted);
+        assertEquals("stock=stock-2", stockUpdate().getSqlSet());
+    }
+
+    @Test
+    void stockMissRollsBackWholeBatch() {
+        when(voucherOrderMapper.insertBatch(any())).thenReturn(2);
+        //ge("stock", count)不满足，更新0行
+        when(seckillVoucherMapper.update(isNull(), any())).thenReturn(0);
+
+        assertThrows(IllegalStateException.class,
+                () -> handle(record("1-0", 101L, 1L, 7L), record("1-1", 102L, 2L, 7L)));
+
+        verify(transactionManager).rollback(any());
+        verify(transactionManager, never()).commit(any());
+        //未ACK，消息留在pending-list中等待重试
+        verify(stringRedisTemplate, never()).opsForStream();
+        verify(orderStatusTracker, never()).markPersisted(any());
+    }
+
+    @Test
+    void duplicateUserOrderIsIgnored() {
+        //同一用户的第二个订单被唯一索引忽略，只插入1行，已落库的只有第一个订单
+        when(voucherOrderMapper.insertBatch(any())).thenReturn(1);
+        when(voucherOrderMapper.selectList(any())).thenReturn(Collections.singletonList(new VoucherOrder().setId(101L)));
+        when(seckillVoucherMapper.update(isNull(), any())).thenReturn(1);
+
+        handle(record("1-0", 101L, 1L, 7L), record("1-1", 102L, 1L, 7L));
+
+        assertEquals("stock=stock-1", stockUpdate().getSqlSet());
+        verify(transactionManager).commit(any());
+        verify(streamOperations).acknowledge(QUEUE_NAME, GROUP_NAME, RecordId.of("1-0"), RecordId.of("1-1"));
+        verify(orderStatusTracker).markFailed(102L, 1L, "不能重复下单");
+        verify(orderStatusTracker).markPersisted(Collections.singletonMap(101L, 1L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void overDeliveredEntryGoesToDeadLetterQueue() throws Exception {
+        RecordId id = RecordId.of("1-0");
+        when(streamOperations.pending(eq(QUEUE_NAME), eq(GROUP_NAME), any(Range.class), anyLong()))
+                .thenReturn(new PendingMessages(GROUP_NAME, Collections.singletonList(
+                        new PendingMessage(id, Consumer.from(GROUP_NAME, "c1"), Duration.ofSeconds(20), 5))));
+        StringRecord record = StreamRecords.string(orderValue(101L, 1L, 7L)).withStreamKey(QUEUE_NAME).withId(id);
+        when(stringRedisTemplate.execute(any(RedisCallback.class))).thenReturn(Collections.singletonList(record));
+
+        Class<?> handlerClass = Class.forName(VoucherOrderServiceImpl.class.getName() + "$PendingRecoveryHandler");
+        Constructor<?> constructor = handlerClass.getDeclaredConstructor(VoucherOrderServiceImpl.class);
+        constructor.setAccessible(true);
+        Object handler = constructor.newInstance(service);
+        ReflectionTestUtils.invokeMethod(handler, "recoverPendingList", "-");
+
+        ArgumentCaptor<Map<Object, Object>> value = ArgumentCaptor.forClass(Map.class);
+        verify(streamOperations).add(eq(DEAD_LETTER_QUEUE_NAME), value.capture());
+        assertEquals("1-0", value.getValue().get("sourceId"));
+        assertEquals("5", value.getValue().get("deliveries"));
+        assertEquals("101", value.getValue().get("id"));
+        verify(streamOperations).acknowledge(QUEUE_NAME, GROUP_NAME, id);
+        verify(orderStatusTracker).markFailed(101L, 1L, "订单处理失败");
+        //超过投递次数的消息不再重试落库
+        verify(voucherOrderMapper, never()).insertBatch(any());
+    }
+
+    private void handle(MapRecord<?, ?, ?>... records) {
+        ReflectionTestUtils.invokeMethod(service, "handleVoucherOrders", Arrays.asList(records));
+    }
+
+    @SuppressWarnings("unchecked")
+    private UpdateWrapper<?> stockUpdate() {
+        ArgumentCaptor<Wrapper<?>> wrapper = ArgumentCaptor.forClass(Wrapper.class);
+        verify(seckillVoucherMapper).update(isNull(), (Wrapper) wrapper.capture());
+        return (UpdateWrapper<?>) wrapper.getValue();
+    }
+
+    private static MapRecord<String, String, String> record(String id, Long orderId, Long userId, Long voucherId) {
+        return MapRecord.create(QUEUE_NAME, orderValue(orderId, userId, voucherId)).withId(RecordId.of(id));
+    }
+
+    private static Map<String, String> orderValue(Long orderId, Long userId, Long voucherId) {
+        Map<String, String> value = new HashMap<>();
+        value.put("id", orderId.toString());
+        value.put("userId", userId.toString());
+        value.put("voucherId", voucherId.toString());
+        return value;
+    }
+}
@@ -0,0 +1,123 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec();
+
+    @Test
+    void shopRoundTrip() {
+        Shop shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://example.com/1.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(-80L)
+                .setSold(4215)
+                .setComments(-3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39, 123456789))
+                .setUpdateTime(LocalDateTime.of(1960, 1, 1, 0, 0));
+        assertEquals(shop, roundTrip(shop, Shop.class));
+    }
+
+    @Test
+    void shopWithNullFieldsRoundTrip() {
+        Shop shop = new Shop().setId(Long.MIN_VALUE).setX(-0.5);
+        assertEquals(shop, roundTrip(shop, Shop.class));
+        assertEquals(new Shop(), roundTrip(new Shop(), Shop.class));
+    }
+
+    @Test
+    void blogRoundTrip() {
+        Blog blog = new Blog()
+                .setId(Long.MAX_VALUE)
+                .setShopId(-1L)
+                .setUserId(1010L)
+                .setName("")
+                .setIsLike(false)
+                .setTitle("无尽浪漫的夜晚")
+                .setContent("生活就是一半烟火·一半诗意")
+                .setLiked(Integer.MIN_VALUE)
+                .setComments(Integer.MAX_VALUE)
+                .setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1));
+        assertEquals(blog, roundTrip(blog, Blog.class));
+    }
+
+    @Test
+    void userRoundTrip() {
+        UserDTO user = new UserDTO();
+        user.setId(-1010L);
+        user.setNickName("可可今天不吃肉");
+        assertEquals(user, roundTrip(user, UserDTO.class));
+    }
+
+    @Test
+    void logicalRoundTrip() {
+        Shop shop = new Shop().setId(2L).setName("蔡馬洪涛烤肉").setScore(-1);
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.of(2022, 1, 1, 0, 0, 0, 1));
+        redisData.setDelta(-25L);
+        redisData.setData(shop);
+
+        RedisData decoded = codec.decodeLogical(codec.encode(redisData), Shop.class);
+        assertEquals(redisData, decoded);
+
+        redisData.setDelta(null);
+        decoded = codec.decodeLogical(codec.encode(redisData), Shop.class);
+        assertEquals(redisData, decoded);
+    }
+
+    @Test
+    void truncatedOrCorruptBytesDecodeAsMiss() {
+        Shop shop = new Shop().setId(1L).setName("103茶餐厅").setX(120.149192).setCreateTime(LocalDateTime.now());
+        byte[] bytes = codec.encode(shop);
+        for (int length = 2; length < bytes.length; length++) {
+            assertNull(codec.decode(Arrays.copyOf(bytes, length), Shop.class), "截断到" + length + "字节");
+        }
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.now());
+        redisData.setData(shop);
+        byte[] logical = codec.encode(redisData);
+        for (int length = 2; length < logical.length; length++) {
+            assertNull(codec.decodeLogical(Arrays.copyOf(logical, length), Shop.class), "截断到" + length + "字节");
+        }
+
+        byte[] corrupt = bytes.clone();
+        for (int i = 7; i < corrupt.length; i++) {
+            corrupt[i] = (byte) 0xFF;
+        }
+        assertNull(codec.decode(corrupt, Shop.class));
+    }
+
+    @Test
+    void fingerprintMismatchDecodesAsMiss() {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        byte[] bytes = codec.encode(user);
+        assertTrue(codec.canDecode(bytes));
+        assertNull(codec.decode(bytes, Shop.class));
+    }
+
+    private <T> T roundTrip(T value, Class<T> type) {
+        byte[] bytes = codec.encode(value);
+        assertTrue(codec.canDecode(bytes));
+        return codec.decode(bytes, type);
+    }
+}
@@ -0,0 +1,77 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+
+    private static final long EXPECTED_INSERTIONS = 10000;
+    private static final double FPP = 0.01;
+
+    @Test
+    void noFalseNegativesAndBoundedFalsePositives() {
+        BloomFilter filter = BloomFilter.create(EXPECTED_INSERTIONS, FPP);
+        for (long id = 1; id <= EXPECTED_INSERTIONS; id++) {
+            filter.put(id);
+        }
+        for (long id = 1; id <= EXPECTED_INSERTIONS; id++) {
+            assertTrue(filter.mightContain(id), "误判不存在: " + id);
+        }
+        int falsePositives = 0;
+        int probes = 100000;
+        for (long id = EXPECTED_INSERTIONS + 1; id <= EXPECTED_INSERTIONS + probes; id++) {
+            falsePositives += filter.mightContain(id) ? 1 : 0;
+        }
+        assertTrue(falsePositives < probes * FPP * 2, "误判率过高: " + falsePositives + "/" + probes);
+    }
+
+    @Test
+    void staticOffsetsMatchFilter() {
+        BloomFilter filter = BloomFilter.create(EXPECTED_INSERTIONS, FPP);
+        for (long id : new long[]{0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 123456789}) {
+            assertArrayEquals(filter.offsets(id), BloomFilter.offsets(id, EXPECTED_INSERTIONS, FPP));
+        }
+    }
+
+    @Test
+    void redisBytesUseBigEndianBitOrder() {
+        BloomFilter filter = BloomFilter.create(EXPECTED_INSERTIONS, FPP);
+        filter.put(42);
+        byte[] bytes = filter.toRedisBytes();
+        int setBits = 0;
+        for (byte b : bytes) {
+            setBits += Integer.bitCount(b & 0xFF);
+        }
+        long[] offsets = filter.offsets(42);
+        for (long offset : offsets) {
+            //与 SETBIT key offset 1 一致：第offset/8个字节，高位在前
+            assertTrue((bytes[(int) (offset >>> 3)] & (0x80 >>> (offset & 7))) != 0, "偏移量未置位: " + offset);
+        }
+        assertTrue(setBits <= offsets.length);
+    }
+
+    @Test
+    void redisBytesRoundTrip() {
+        BloomFilter filter = BloomFilter.create(EXPECTED_INSERTIONS, FPP);
+        for (long id = 1; id <= 1000; id++) {
+            filter.put(id * 7919);
+        }
+        byte[] bytes = filter.toRedisBytes();
+
+        BloomFilter loaded = BloomFilter.create(EXPECTED_INSERTIONS, FPP);
+        assertFalse(loaded.mightContain(7919));
+        loaded.loadRedisBytes(bytes);
+        for (long id = 1; id <= 1000; id++) {
+            assertTrue(loaded.mightContain(id * 7919));
+        }
+        assertArrayEquals(bytes, loaded.toRedisBytes());
+        //Redis中的bitmap可能比过滤器短（末尾的0字节未写入）
+        BloomFilter partial = BloomFilter.create(EXPECTED_INSERTIONS, FPP);
+        partial.loadRedisBytes(new byte[]{(byte) 0x80});
+        assertEquals((byte) 0x80, partial.toRedisBytes()[0]);
+    }
+}
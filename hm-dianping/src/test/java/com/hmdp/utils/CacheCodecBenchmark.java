@@ -0,0 +1,102 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON与二进制缓存编解码的CPU耗时对比，运行前先打印两种格式的编码大小
+ * 运行：先执行 mvn test-compile，再以test classpath运行本类的main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    @Param({"json", "binary"})
+    private String codecName;
+
+    private CacheCodec codec;
+    private Shop shop;
+    private RedisData redisData;
+    private byte[] shopBytes;
+    private byte[] logicalBytes;
+
+    @Setup
+    public void setUp() {
+        codec = "binary".equals(codecName) ? new BinaryCacheCodec() : new JsonCacheCodec();
+        shop = sampleShop();
+        redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        redisData.setDelta(25L);
+        redisData.setData(shop);
+        shopBytes = codec.encode(shop);
+        logicalBytes = codec.encode(redisData);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(shop);
+    }
+
+    @Benchmark
+    public Shop decode() {
+        return codec.decode(shopBytes, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] encodeLogical() {
+        return codec.encode(redisData);
+    }
+
+    @Benchmark
+    public RedisData decodeLogical() {
+        return codec.decodeLogical(logicalBytes, Shop.class);
+    }
+
+    static Shop sampleShop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Shop shop = sampleShop();
+        System.out.printf("Shop编码大小: json=%d字节, binary=%d字节%n",
+                new JsonCacheCodec().encode(shop).length, new BinaryCacheCodec().encode(shop).length);
+        new Runner(new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
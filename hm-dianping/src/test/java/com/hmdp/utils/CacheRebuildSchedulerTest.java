@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheRebuildSchedulerTest {
+
+    private static final int QUEUE_CAPACITY = 2;
+
+    private CacheRebuildScheduler scheduler;
+    /**阻塞唯一的重建线程，使后续任务留在队列中*/
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        HotKeyDetector hotKeyDetector = new HotKeyDetector();
+        ReflectionTestUtils.setField(hotKeyDetector, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(hotKeyDetector, "sampleRate", 1);
+        ReflectionTestUtils.setField(hotKeyDetector, "threshold", 1000L);
+        scheduler = new CacheRebuildScheduler();
+        ReflectionTestUtils.setField(scheduler, "hotKeyDetector", hotKeyDetector);
+        ReflectionTestUtils.setField(scheduler, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(scheduler, "threads", 1);
+        ReflectionTestUtils.setField(scheduler, "queueCapacity", QUEUE_CAPACITY);
+        ReflectionTestUtils.invokeMethod(scheduler, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        ReflectionTestUtils.invokeMethod(scheduler, "shutdown");
+    }
+
+    @Test
+    void deduplicatesPerKey() throws InterruptedException {
+        assertTrue(scheduler.submit("shop:1", this::block));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        //执行中的key不再提交
+        assertFalse(scheduler.submit("shop:1", () -> { }));
+        //排队中的key不再提交
+        assertTrue(scheduler.submit("shop:2", () -> { }));
+        assertFalse(scheduler.submit("shop:2", () -> { }));
+
+        release.countDown();
+        awaitNotPending("shop:1");
+        awaitNotPending("shop:2");
+        assertTrue(scheduler.submit("shop:1", () -> { }));
+    }
+
+    @Test
+    void rejectsBeyondQueueCapacityUnderConcurrentSubmit() throws Exception {
+        assertTrue(scheduler.submit("blocker", this::block));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        int submitters = 8;
+        int keysPerSubmitter = 10;
+        ExecutorService pool = Executors.newFixedThreadPool(submitters);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicInteger accepted = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < submitters; t++) {
+            int submitter = t;
+            futures.add(pool.submit(() -> {
+                go.await();
+                for (int i = 0; i < keysPerSubmitter; i++) {
+                    if (scheduler.submit("shop:" + submitter + ":" + i, () -> { })) {
+                        accepted.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        go.countDown();
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(QUEUE_CAPACITY, accepted.get());
+        //被拒绝的key不留在去重记录中，之后可以重新提交
+        int pending = 0;
+        for (int t = 0; t < submitters; t++) {
+            for (int i = 0; i < keysPerSubmitter; i++) {
+                pending += scheduler.isPending("shop:" + t + ":" + i) ? 1 : 0;
+            }
+        }
+        assertEquals(QUEUE_CAPACITY, pending);
+    }
+
+    @Test
+    void failedTaskClearsPending() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+        assertTrue(scheduler.submit("shop:1", () -> {
+            ran.countDown();
+            throw new IllegalStateException("数据库不可用");
+        }));
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        awaitNotPending("shop:1");
+        assertTrue(scheduler.submit("shop:1", () -> { }));
+    }
+
+    private void block() {
+        started.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitNotPending(String key) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.isPending(key) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(scheduler.isPending(key), key + "仍在pending中");
+    }
+}
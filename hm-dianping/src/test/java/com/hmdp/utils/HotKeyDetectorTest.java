@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HotKeyDetectorTest {
+
+    private HotKeyDetector detector;
+    private final List<String> demoted = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        detector = new HotKeyDetector();
+        ReflectionTestUtils.setField(detector, "meterRegistry", new SimpleMeterRegistry());
+        //不采样，每次访问都计数
+        ReflectionTestUtils.setField(detector, "sampleRate", 1);
+        ReflectionTestUtils.setField(detector, "threshold", 100L);
+        ReflectionTestUtils.setField(detector, "capacity", 2);
+        ReflectionTestUtils.invokeMethod(detector, "init");
+        detector.addDemotionListener(demoted::add);
+    }
+
+    @Test
+    void promotedOnceEstimateReachesThreshold() {
+        record("shop:1", 99);
+        assertFalse(detector.isHot("shop:1"));
+        record("shop:1", 1);
+        assertTrue(detector.isHot("shop:1"));
+        record("shop:1", 20);
+        assertEquals(Collections.singletonMap("shop:1", 120L), detector.hotKeys());
+    }
+
+    @Test
+    void demotedAfterDecayBelowHalfThreshold() {
+        record("shop:1", 100);
+        //100 -> 50，不低于阈值的一半，仍是热点
+        detector.decay();
+        assertTrue(detector.isHot("shop:1"));
+        assertEquals(50L, detector.hotKeys().get("shop:1"));
+        //50 -> 25，降级并通知监听者
+        detector.decay();
+        assertFalse(detector.isHot("shop:1"));
+        assertEquals(Collections.singletonList("shop:1"), demoted);
+    }
+
+    @Test
+    void fullListReplacesColdestKey() {
+        record("shop:1", 100);
+        record("shop:2", 110);
+        record("shop:3", 105);
+        assertTrue(detector.isHot("shop:2"));
+        assertTrue(detector.isHot("shop:3"));
+        assertFalse(detector.isHot("shop:1"));
+        assertEquals(Collections.singletonList("shop:1"), demoted);
+    }
+
+    private void record(String key, int times) {
+        for (int i = 0; i < times; i++) {
+            detector.record(key);
+        }
+    }
+}
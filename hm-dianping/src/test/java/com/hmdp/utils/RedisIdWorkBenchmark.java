@@ -0,0 +1,75 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 三种id生成模式的吞吐量对比，需要一个可访问的Redis
+ * 运行：先执行 mvn test-compile，再以test classpath运行本类的main方法
+ * Redis地址通过 -Dredis.host、-Dredis.port、-Dredis.password 指定
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class RedisIdWorkBenchmark {
+
+    @Param({RedisIdWork.MODE_INCR, RedisIdWork.MODE_SEGMENT, RedisIdWork.MODE_SNOWFLAKE})
+    private String mode;
+
+    private LettuceConnectionFactory connectionFactory;
+    private RedisIdWork redisIdWork;
+
+    @Setup
+    public void setUp() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        configuration.setPassword(System.getProperty("redis.password", ""));
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        redisIdWork = new RedisIdWork(new StringRedisTemplate(connectionFactory));
+        ReflectionTestUtils.setField(redisIdWork, "mode", mode);
+        ReflectionTestUtils.setField(redisIdWork, "segmentSize", 1000L);
+        ReflectionTestUtils.invokeMethod(redisIdWork, "init");
+    }
+
+    @TearDown
+    public void tearDown() {
+        ReflectionTestUtils.invokeMethod(redisIdWork, "destroy");
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWork.nextId("bench");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RedisIdWorkBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
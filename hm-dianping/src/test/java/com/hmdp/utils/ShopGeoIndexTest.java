@@ -0,0 +1,84 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopGeoIndexTest {
+
+    /**搜索中心：杭州拱墅区*/
+    private static final double X = 120.149993;
+    private static final double Y = 30.334229;
+    /**约111米/0.001纬度*/
+    private static final double STEP = 0.001;
+
+    private ShopGeoIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopGeoIndex();
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "ready", true);
+        //按与中心的距离乱序加入：id为n的商铺在中心以北n*111米
+        for (long id : new long[]{5, 1, 30, 3, 2, 60, 4}) {
+            put(new Shop().setId(id).setTypeId(1L).setX(X).setY(Y + id * STEP));
+        }
+        //其它类型的商铺不应出现在结果中
+        put(new Shop().setId(100L).setTypeId(2L).setX(X).setY(Y));
+    }
+
+    @Test
+    void returnsShopsInRadiusOrderedByDistance() {
+        ShopGeoIndex.Nearby nearby = index.search(1, X, Y, 5000, 10);
+        //60*111米超出5公里
+        assertArrayEquals(new long[]{1, 2, 3, 4, 5, 30}, nearby.ids);
+        for (int i = 1; i < nearby.distances.length; i++) {
+            assertTrue(nearby.distances[i - 1] <= nearby.distances[i]);
+        }
+        assertTrue(nearby.distances[nearby.distances.length - 1] <= 5000);
+        assertEquals(111.2, nearby.distances[0], 0.5);
+    }
+
+    @Test
+    void limitKeepsNearest() {
+        assertArrayEquals(new long[]{1, 2, 3}, index.search(1, X, Y, 5000, 3).ids);
+        assertArrayEquals(new long[]{1, 2}, index.search(1, X, Y, 250, 10).ids);
+    }
+
+    @Test
+    void hugeLimitIsBoundedByShopCount() {
+        assertEquals(6, index.search(1, X, Y, 5000, Integer.MAX_VALUE).ids.length);
+    }
+
+    @Test
+    void appliesMovesAndDeletes() {
+        Shop before = new Shop().setId(1L).setTypeId(1L).setX(X).setY(Y + STEP);
+        //移动到其它类型
+        put(before, new Shop().setId(1L).setTypeId(2L).setX(X).setY(Y + STEP));
+        assertArrayEquals(new long[]{2, 3}, index.search(1, X, Y, 5000, 2).ids);
+        assertArrayEquals(new long[]{100, 1}, index.search(2, X, Y, 5000, 10).ids);
+        //删除
+        put(new Shop().setId(1L).setTypeId(2L), null);
+        assertArrayEquals(new long[]{100}, index.search(2, X, Y, 5000, 10).ids);
+    }
+
+    @Test
+    void notReadyReturnsNull() {
+        ReflectionTestUtils.setField(index, "ready", false);
+        assertNull(index.search(1, X, Y, 5000, 10));
+    }
+
+    private void put(Shop after) {
+        put(null, after);
+    }
+
+    private void put(Shop before, Shop after) {
+        ReflectionTestUtils.invokeMethod(index, "handle", new ShopChangedEvent(this, before, after));
+    }
+}